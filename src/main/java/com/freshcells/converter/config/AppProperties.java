@@ -1,10 +1,172 @@
 package com.freshcells.converter.config;
 
+import com.freshcells.converter.enums.CompactStorage;
+import com.freshcells.converter.enums.StageOverflow;
+import com.freshcells.converter.enums.XmlParserBackend;
 import jakarta.validation.constraints.NotBlank;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
 
 @ConfigurationProperties(prefix = "app")
 public record AppProperties(
         @NotBlank String outputDir,
-        @NotBlank int httpClientTimeoutSeconds
-) {}
+        @NotBlank int httpClientTimeoutSeconds,
+        @DefaultValue Admission admission,
+        @DefaultValue StateStore stateStore,
+        @DefaultValue Output output,
+        @DefaultValue Images images,
+        @DefaultValue ParseCache parseCache,
+        @DefaultValue Idempotency idempotency,
+        @DefaultValue Xml xml,
+        @DefaultValue Progress progress,
+        @DefaultValue Projection projection,
+        @DefaultValue Cluster cluster,
+        @DefaultValue Watch watch,
+        @DefaultValue CompactHotels compactHotels,
+        @DefaultValue Pipeline pipeline
+) {
+
+    public record Admission(
+            //absolute budget, 0 - derive from max heap using heapBudgetRatio
+            @DefaultValue("0") long memoryBudgetBytes,
+            @DefaultValue("0.6") double heapBudgetRatio,
+            //estimated heap bytes held per uploaded byte (parsed trees, buffered images)
+            @DefaultValue("8") int costMultiplier,
+            @DefaultValue("16") int maxQueuedRequests,
+            @DefaultValue("30") int queueTimeoutSeconds,
+            @DefaultValue("5") int retryAfterSeconds
+    ) {}
+
+    public record StateStore(
+            @DefaultValue("false") boolean enabled,
+            //blank - '<output-dir>/state'
+            @DefaultValue("") String dir
+    ) {}
+
+    public record Output(
+            //1 - single hotels.json, N - hotels-<n>.json shards listed in manifest.json
+            @DefaultValue("1") int shards
+    ) {}
+
+    public record Images(
+            //max edge in pixels of every resized variant, empty - no derivatives
+            @DefaultValue List<Integer> derivativeSizes,
+            //0 - number of available processors
+            @DefaultValue("0") int derivativeThreads,
+            @DefaultValue("64") int derivativeQueueCapacity,
+            @DefaultValue Dedup dedup,
+            //measured from the start of a batch, downloads still running then are cancelled
+            //and the batch completes with the images stored so far
+            @DefaultValue("300") long downloadDeadlineSeconds
+    ) {}
+
+    public record Dedup(
+            @DefaultValue("false") boolean enabled,
+            //max Hamming distance between 64-bit dHashes of images treated as the same photo
+            @DefaultValue("4") int maxDistance,
+            //blank - index lives in memory only
+            @DefaultValue("") String indexFile
+    ) {}
+
+    public record ParseCache(
+            @DefaultValue("false") boolean enabled,
+            //budget for the serialized (Smile) form of cached parse results
+            @DefaultValue("67108864") long maxBytes,
+            //blank - cache is not kept between restarts
+            @DefaultValue("") String persistDir
+    ) {}
+
+    public record Idempotency(
+            @DefaultValue("true") boolean enabled,
+            //how long a finished batch is returned to retries
+            @DefaultValue("3600") long ttlSeconds,
+            @DefaultValue("256") int maxEntries,
+            //how long a retry waits for the running batch before it is answered with 429
+            @DefaultValue("300") long waitSeconds
+    ) {}
+
+    public record Xml(
+            //StAX implementation used by the XmlMapper: woodstox, aalto or jdk
+            @DefaultValue("woodstox") XmlParserBackend parser
+    ) {}
+
+    public record Progress(
+            //events buffered per subscriber, a subscriber that falls further behind is disconnected
+            @DefaultValue("256") int subscriberQueueCapacity,
+            @DefaultValue("900") long emitterTimeoutSeconds,
+            //finished batches kept so late subscribers still get the final event
+            @DefaultValue("64") int retainedBatches
+    ) {}
+
+    public record Projection(
+            @DefaultValue ProjectionRules giata,
+            @DefaultValue ProjectionRules coa,
+            //image urls found inside dropped subtrees are still kept, so image discovery doesn't change
+            @DefaultValue("true") boolean keepImageUrls
+    ) {}
+
+    public record ProjectionRules(
+            //paths of fields relative to the document root: 'hotel/texts', '*' - any field, '**' - any depth;
+            //empty include - everything not excluded
+            @DefaultValue List<String> include,
+            @DefaultValue List<String> exclude,
+            //subtrees copied to the output unchanged, kept as raw JSON instead of maps and lists
+            @DefaultValue List<String> passThrough
+    ) {}
+
+    public record Cluster(
+            @DefaultValue("false") boolean enabled,
+            //feed drop shared by all instances, their leases and partial outputs live in '<input-dir>/.cluster'
+            @DefaultValue("") String inputDir,
+            //blank - '<hostname>-<pid>'
+            @DefaultValue("") String instanceId,
+            //hotel groups processed at the same time by one instance, 0 - number of available processors
+            @DefaultValue("0") int threads,
+            //a lease whose holder hasn't renewed it for this long is taken over by another instance
+            @DefaultValue("60") long leaseSeconds,
+            @DefaultValue("15") long heartbeatSeconds,
+            @DefaultValue("10") long pollSeconds
+    ) {}
+
+    public record Watch(
+            @DefaultValue("false") boolean enabled,
+            //directory feed files are uploaded to, processed files are moved to '.processed' or '.failed' in it
+            @DefaultValue("") String dir,
+            //a file is picked up once no write touched it for this long, uploads arrive in many writes
+            @DefaultValue("2000") long debounceMillis,
+            //files of one hotel are never split, a larger group is processed alone
+            @DefaultValue("100") int maxFilesPerBatch,
+            //0 - the next micro-batch starts as soon as the previous one is finished
+            @DefaultValue("0") long minBatchIntervalMillis
+    ) {}
+
+    public record CompactHotels(
+            //merged hotels are kept as Smile bytes until the output is written, instead of parsed trees;
+            //applies to batches without the state store
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("heap") CompactStorage storage,
+            //encoded hotels are appended to chunks of this size
+            @DefaultValue("16777216") int chunkBytes
+    ) {}
+
+    //stages shared by all batches; image derivatives are the 'derive' stage configured in 'images'
+    public record Pipeline(
+            //HTTP exchanges in flight
+            @DefaultValue Stage fetch,
+            //decoding and storing downloaded images
+            @DefaultValue Stage validate,
+            //serializing hotels documents
+            @DefaultValue Stage write
+    ) {}
+
+    public record Stage(
+            //tasks running at once, 0 - number of available processors
+            @DefaultValue("0") int parallelism,
+            //tasks waiting for a free slot
+            @DefaultValue("256") int queueCapacity,
+            //block - the submitter waits while the queue is full, shed - the task fails
+            @DefaultValue("block") StageOverflow overflow
+    ) {}
+}
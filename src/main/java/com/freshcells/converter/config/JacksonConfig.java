@@ -4,12 +4,16 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlFactory;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.freshcells.converter.enums.XmlParserBackend;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+@Slf4j
 @Configuration
 public class JacksonConfig {
 
@@ -25,8 +29,17 @@ public class JacksonConfig {
 
     @Bean
     @Qualifier("xmlMapper")
-    public XmlMapper xmlMapper() {
-        return XmlMapper.builder()
+    public XmlMapper xmlMapper(AppProperties appProperties) {
+        XmlParserBackend parser = appProperties.xml().parser();
+        log.info("Using {} XML parser backend", parser);
+        return xmlMapper(parser);
+    }
+
+    public XmlMapper xmlMapper(XmlParserBackend parser) {
+        XmlFactory xmlFactory = XmlFactory.builder()
+                .xmlInputFactory(parser.createInputFactory())
+                .build();
+        return XmlMapper.builder(xmlFactory)
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
                 .configure(SerializationFeature.INDENT_OUTPUT, true)
                 .addModule(new JavaTimeModule())
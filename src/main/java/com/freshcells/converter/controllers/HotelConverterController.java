@@ -1,12 +1,23 @@
 package com.freshcells.converter.controllers;
 
+import com.freshcells.converter.model.PipelineStageStats;
 import com.freshcells.converter.model.ProcessingResult;
+import com.freshcells.converter.model.ProgressEvent;
+import com.freshcells.converter.services.AdmissionControlService;
+import com.freshcells.converter.services.BatchIdempotencyService;
+import com.freshcells.converter.services.BatchProgressService;
 import com.freshcells.converter.services.HotelConverterService;
+import com.freshcells.converter.services.HotelLookupService;
+import com.freshcells.converter.services.PipelineService;
+import com.freshcells.converter.services.StreamingUploadService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
 
@@ -15,11 +26,88 @@ import java.util.List;
 @RequiredArgsConstructor
 public class HotelConverterController {
     private final HotelConverterService hotelConverterService;
+    private final AdmissionControlService admissionControlService;
+    private final HotelLookupService hotelLookupService;
+    private final BatchIdempotencyService batchIdempotencyService;
+    private final StreamingUploadService streamingUploadService;
+    private final BatchProgressService batchProgressService;
+    private final PipelineService pipelineService;
+
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    //chosen by the client to follow the batch on /batches/{batchId}/progress while it runs
+    private static final String BATCH_ID_HEADER = "X-Batch-Id";
+    private static final String DIAGNOSTICS_PARAM = "diagnostics";
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<ProcessingResult> convertFiles(
-            @RequestParam("files") List<MultipartFile> files) {
-        ProcessingResult result = hotelConverterService.processFiles(files);
-        return ResponseEntity.ok(result);
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(value = BATCH_ID_HEADER, required = false) String batchIdHeader,
+            @RequestParam(value = DIAGNOSTICS_PARAM, defaultValue = "false") boolean diagnostics) {
+        String batchId = batchId(batchIdHeader);
+        //retries attached to a running batch don't take a second admission permit, and get the id it runs under
+        BatchIdempotencyService.Execution execution =
+                batchIdempotencyService.execute(idempotencyKey, batchId, files, () -> {
+                    try (AdmissionControlService.Permit ignored = admissionControlService.admit(files)) {
+                        return hotelConverterService.processFiles(files, batchId);
+                    }
+                });
+        ProcessingResult result = execution.result();
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, execution.batchId())
+                .body(diagnostics ? result : result.withoutDiagnostics());
+    }
+
+    //same result as convertFiles, but parts are parsed while the upload is still arriving
+    @PostMapping(value = "/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ProcessingResult> convertStream(
+            HttpServletRequest request,
+            @RequestHeader(value = BATCH_ID_HEADER, required = false) String batchIdHeader) {
+        String batchId = batchId(batchIdHeader);
+        boolean diagnostics = diagnosticsRequested(request);
+        try (AdmissionControlService.Permit ignored =
+                     admissionControlService.admit(streamingUploadService.expectedUploadBytes(request))) {
+            ProcessingResult result = streamingUploadService.processUpload(request, batchId);
+            return ResponseEntity.ok()
+                    .header(BATCH_ID_HEADER, batchId)
+                    .body(diagnostics ? result : result.withoutDiagnostics());
+        }
+    }
+
+    @GetMapping(value = "/batches/{batchId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getProgress(@PathVariable String batchId) {
+        return batchProgressService.subscribe(batchId);
+    }
+
+    @GetMapping("/batches")
+    public ResponseEntity<List<ProgressEvent>> getActiveBatches() {
+        return ResponseEntity.ok(batchProgressService.activeBatches());
+    }
+
+    //queue depth and throughput of every pipeline stage, shared by all running batches
+    @GetMapping("/pipeline")
+    public ResponseEntity<List<PipelineStageStats>> getPipelineStats() {
+        return ResponseEntity.ok(pipelineService.stats());
+    }
+
+    @GetMapping(value = "/{run}/hotels/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getHotel(@PathVariable String run, @PathVariable String id) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(hotelLookupService.getHotel(run, id));
+    }
+
+    //read from the query string only: request parameters of a multipart request would make the container
+    //consume the body before it can be streamed
+    private boolean diagnosticsRequested(HttpServletRequest request) {
+        String value = UriComponentsBuilder.newInstance().query(request.getQueryString()).build()
+                .getQueryParams().getFirst(DIAGNOSTICS_PARAM);
+        return Boolean.parseBoolean(value);
+    }
+
+    private String batchId(String batchIdHeader) {
+        return batchIdHeader == null
+                ? BatchProgressService.newBatchId()
+                : BatchProgressService.validateBatchId(batchIdHeader);
     }
 }
@@ -0,0 +1,10 @@
+package com.freshcells.converter.enums;
+
+//where encoded hotels of a running batch are kept
+public enum CompactStorage {
+    HEAP,
+    //direct buffers, outside the heap the garbage collector scans
+    DIRECT,
+    //memory-mapped temporary file, the OS pages it out under memory pressure
+    MAPPED
+}
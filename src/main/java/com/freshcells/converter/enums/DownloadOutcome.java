@@ -0,0 +1,8 @@
+package com.freshcells.converter.enums;
+
+public enum DownloadOutcome {
+    DOWNLOADED,
+    FAILED,
+    //the batch deadline passed before the image was stored
+    CANCELLED
+}
@@ -4,6 +4,7 @@ import com.freshcells.converter.exceptions.HotelValidationException;
 import lombok.Getter;
 
 import java.util.Arrays;
+import java.util.Optional;
 
 @Getter
 public enum FileExtension {
@@ -17,9 +18,12 @@ public enum FileExtension {
     }
 
     public static FileExtension fromExtension(String extension) {
+        return find(extension).orElseThrow(() -> new HotelValidationException("Unsupported file type: " + extension));
+    }
+
+    public static Optional<FileExtension> find(String extension) {
         return Arrays.stream(values())
                 .filter(type -> type.extension.equalsIgnoreCase(extension))
-                .findFirst()
-                .orElseThrow(() -> new HotelValidationException("Unsupported file type: " + extension));
+                .findFirst();
     }
 }
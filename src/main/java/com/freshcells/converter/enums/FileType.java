@@ -2,13 +2,19 @@ package com.freshcells.converter.enums;
 
 import com.freshcells.converter.exceptions.HotelValidationException;
 
+import java.util.Optional;
+
 public enum FileType {
     GIATA,
     COA;
 
     public static FileType fromFilename(String filename) {
-        if (filename.contains("-giata.")) return GIATA;
-        if (filename.contains("-coah.")) return COA;
-        throw new HotelValidationException("Unknown file type: " + filename);
+        return find(filename).orElseThrow(() -> new HotelValidationException("Unknown file type: " + filename));
+    }
+
+    public static Optional<FileType> find(String filename) {
+        if (filename.contains("-giata.")) return Optional.of(GIATA);
+        if (filename.contains("-coah.")) return Optional.of(COA);
+        return Optional.empty();
     }
 }
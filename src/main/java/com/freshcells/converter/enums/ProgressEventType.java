@@ -0,0 +1,19 @@
+package com.freshcells.converter.enums;
+
+public enum ProgressEventType {
+    STARTED,
+    FILE_PARSED,
+    FILE_SKIPPED,
+    HOTEL_MERGED,
+    IMAGE_QUEUED,
+    IMAGE_DOWNLOADED,
+    IMAGE_FAILED,
+    IMAGE_CANCELLED,
+    JSON_WRITTEN,
+    COMPLETED,
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
@@ -0,0 +1,9 @@
+package com.freshcells.converter.enums;
+
+//what a pipeline stage does with a task submitted while its queue is full
+public enum StageOverflow {
+    //the submitter waits, so a slow stage slows down the stages feeding it
+    BLOCK,
+    //the task fails right away with a RejectedExecutionException
+    SHED
+}
@@ -0,0 +1,41 @@
+package com.freshcells.converter.enums;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+
+import javax.xml.stream.XMLInputFactory;
+
+public enum XmlParserBackend {
+    WOODSTOX {
+        @Override
+        protected XMLInputFactory newInputFactory() {
+            return new WstxInputFactory();
+        }
+    },
+    AALTO {
+        @Override
+        protected XMLInputFactory newInputFactory() {
+            return new InputFactoryImpl();
+        }
+    },
+    //StAX implementation bundled with the JDK
+    JDK {
+        @Override
+        protected XMLInputFactory newInputFactory() {
+            return XMLInputFactory.newDefaultFactory();
+        }
+    };
+
+    //implementations are instantiated directly, with several StAX jars on the classpath
+    //XMLInputFactory.newFactory() would pick whichever service entry comes first
+    protected abstract XMLInputFactory newInputFactory();
+
+    public XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = newInputFactory();
+        //same hardening XmlMapper applies to its default factory: no DTDs, no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        return factory;
+    }
+}
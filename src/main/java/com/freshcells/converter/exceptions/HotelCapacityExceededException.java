@@ -0,0 +1,13 @@
+package com.freshcells.converter.exceptions;
+
+import lombok.Getter;
+
+@Getter
+public class HotelCapacityExceededException extends RuntimeException {
+    private final int retryAfterSeconds;
+
+    public HotelCapacityExceededException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
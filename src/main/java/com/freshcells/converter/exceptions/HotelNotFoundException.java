@@ -0,0 +1,7 @@
+package com.freshcells.converter.exceptions;
+
+public class HotelNotFoundException extends RuntimeException {
+    public HotelNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,34 @@
+package com.freshcells.converter.model;
+
+import java.util.List;
+
+//where the time of a batch went, returned with ?diagnostics=true
+public record BatchDiagnostics(
+        List<FileDiagnostics> files,
+        int hotels,
+        //urls found in all files, the same url in several files counts every time
+        int imageUrlsFound,
+        int imageUrlsUnique,
+        LatencySummary downloadLatency,
+        //decoding and checking downloaded images, summed over all downloads
+        long imageValidationMillis,
+        long serializationMillis,
+        long outputBytes,
+        int peakDownloadsInFlight,
+        int peakDerivativeQueue
+) {
+    public record FileDiagnostics(
+            String filename,
+            long bytes,
+            long parseMicros
+    ) {}
+
+    //percentiles are upper bounds of power-of-two buckets
+    public record LatencySummary(
+            long count,
+            long p50Millis,
+            long p90Millis,
+            long p99Millis,
+            long maxMillis
+    ) {}
+}
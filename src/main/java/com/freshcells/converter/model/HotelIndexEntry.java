@@ -0,0 +1,6 @@
+package com.freshcells.converter.model;
+
+public record HotelIndexEntry(
+        long offset,
+        int length
+) {}
@@ -0,0 +1,19 @@
+package com.freshcells.converter.model;
+
+import java.util.List;
+
+public record OutputManifest(
+        int shardCount,
+        int totalHotels,
+        //how hotel ids are assigned to shards, consumers use it to route lookups
+        String partitioning,
+        List<Shard> shards
+) {
+    public record Shard(
+            String file,
+            String indexFile,
+            int hotels,
+            long bytes,
+            String sha256
+    ) {}
+}
@@ -0,0 +1,17 @@
+package com.freshcells.converter.model;
+
+import com.freshcells.converter.enums.StageOverflow;
+
+public record PipelineStageStats(
+        String name,
+        int parallelism,
+        int queueCapacity,
+        StageOverflow overflow,
+        //tasks holding a slot, including ones waiting for the next stage to take their result
+        int active,
+        int queued,
+        long completed,
+        long shed,
+        //completions per second over the last 10 seconds
+        double throughput
+) {}
@@ -1,12 +1,28 @@
 package com.freshcells.converter.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record ProcessingResult(
+        //null when the output is sharded
         Path jsonFile,
+        //present only when the output is sharded
+        Path manifestFile,
         Path imagesDirectory,
         LocalDateTime timestamp,
         int processedFiles,
-        int downloadedImages
-) {}
+        int downloadedImages,
+        int failedImages,
+        //downloads still running when the batch deadline passed
+        int cancelledImages,
+        //always collected, returned only when requested
+        BatchDiagnostics diagnostics
+) {
+    public ProcessingResult withoutDiagnostics() {
+        return new ProcessingResult(jsonFile, manifestFile, imagesDirectory, timestamp,
+                processedFiles, downloadedImages, failedImages, cancelledImages, null);
+    }
+}
@@ -0,0 +1,23 @@
+package com.freshcells.converter.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.freshcells.converter.enums.ProgressEventType;
+
+import java.time.LocalDateTime;
+
+//one step of a batch together with the batch counters after it
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ProgressEvent(
+        String batchId,
+        ProgressEventType type,
+        //file name, hotel id, image url or output file the event refers to
+        String detail,
+        int filesParsed,
+        int filesSkipped,
+        int hotelsMerged,
+        int imagesQueued,
+        int imagesDownloaded,
+        int imagesFailed,
+        int imagesCancelled,
+        LocalDateTime timestamp
+) {}
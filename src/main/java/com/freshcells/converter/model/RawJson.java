@@ -0,0 +1,66 @@
+package com.freshcells.converter.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+//subtree kept as compact UTF-8 JSON instead of maps and lists, written to the output as it is
+public record RawJson(
+        byte[] json,
+        //image urls inside the subtree, so image discovery doesn't have to parse it again
+        Set<String> imageUrls
+) implements JsonSerializable {
+
+    //binary formats can't embed raw JSON, there the subtree becomes an object with these fields
+    public static final String JSON_FIELD = "@rawJson";
+    public static final String IMAGE_URLS_FIELD = "@imageUrls";
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        if (generator.canWriteBinaryNatively()) {
+            generator.writeStartObject();
+            generator.writeBinaryField(JSON_FIELD, json);
+            generator.writeArrayFieldStart(IMAGE_URLS_FIELD);
+            for (String url : imageUrls) {
+                generator.writeString(url);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } else if (generator.getOutputTarget() instanceof ByteArrayOutputStream out) {
+            //empty raw value lets the generator emit the separator, the bytes go straight to the buffer
+            generator.writeRawValue("");
+            generator.flush();
+            out.write(json);
+        } else {
+            generator.writeRawValue(new String(json, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer)
+            throws IOException {
+        serialize(generator, serializers);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RawJson raw && Arrays.equals(json, raw.json) && imageUrls.equals(raw.imageUrls);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(json) + imageUrls.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelCapacityExceededException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Service
+public class AdmissionControlService {
+    private final AppProperties.Admission properties;
+    private final Semaphore budget;
+    private final int budgetKb;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    //budget is tracked in KiB so that heaps above 2GB still fit into int permits
+    private static final int KB = 1024;
+    private static final int MIN_REQUEST_COST_KB = 1024;
+
+    public AdmissionControlService(AppProperties appProperties) {
+        this.properties = appProperties.admission();
+        long budgetBytes = properties.memoryBudgetBytes() > 0
+                ? properties.memoryBudgetBytes()
+                : (long) (Runtime.getRuntime().maxMemory() * properties.heapBudgetRatio());
+        this.budgetKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budgetBytes / KB));
+        this.budget = new Semaphore(budgetKb, true);
+        log.info("Admission control budget: {} KB, max queued requests: {}",
+                budgetKb, properties.maxQueuedRequests());
+    }
+
+    public Permit admit(List<MultipartFile> files) {
+        return admit(files.stream().mapToLong(MultipartFile::getSize).sum());
+    }
+
+    public Permit admit(long uploadBytes) {
+        int costKb = estimateCostKb(uploadBytes);
+
+        if (budget.tryAcquire(costKb)) {
+            return new Permit(costKb);
+        }
+
+        //saturated: wait in a bounded queue instead of piling up parsed trees on the heap
+        if (queued.incrementAndGet() > properties.maxQueuedRequests()) {
+            queued.decrementAndGet();
+            throw rejected();
+        }
+        try {
+            if (!budget.tryAcquire(costKb, properties.queueTimeoutSeconds(), TimeUnit.SECONDS)) {
+                throw rejected();
+            }
+            return new Permit(costKb);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw rejected();
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public int availableKb() {
+        return budget.availablePermits();
+    }
+
+    public int queuedRequests() {
+        return queued.get();
+    }
+
+    int estimateCostKb(List<MultipartFile> files) {
+        return estimateCostKb(files.stream().mapToLong(MultipartFile::getSize).sum());
+    }
+
+    int estimateCostKb(long uploadBytes) {
+        long costKb = uploadBytes * properties.costMultiplier() / KB;
+        //a single request can never need more than the whole budget, otherwise it would wait forever
+        return (int) Math.min(budgetKb, Math.max(MIN_REQUEST_COST_KB, costKb));
+    }
+
+    private HotelCapacityExceededException rejected() {
+        log.warn("Rejecting conversion request: memory budget exhausted ({} KB free, {} queued)",
+                budget.availablePermits(), queued.get());
+        return new HotelCapacityExceededException(
+                "Converter is at capacity, retry later", properties.retryAfterSeconds());
+    }
+
+    public class Permit implements AutoCloseable {
+        private final int costKb;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int costKb) {
+            this.costKb = costKb;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                budget.release(costKb);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelCapacityExceededException;
+import com.freshcells.converter.exceptions.HotelFileProcessingException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.ProcessingResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+@Slf4j
+@Service
+public class BatchIdempotencyService {
+    private final AppProperties.Idempotency properties;
+
+    //insertion-ordered, the eldest batches are evicted first
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+    private static final int RETRY_AFTER_SECONDS = 10;
+
+    private record Batch(String fingerprint, String batchId, CompletableFuture<ProcessingResult> result,
+                         Instant created) {}
+
+    //batchId - id the progress of the batch is published under, the original one for retries
+    public record Execution(String batchId, ProcessingResult result) {}
+
+    public BatchIdempotencyService(AppProperties appProperties) {
+        this.properties = appProperties.idempotency();
+    }
+
+    //runs the batch once per Idempotency-Key: retries of a running batch wait for it, retries of a finished one
+    //get its result; requests without the header always run. 'processing' runs the batch under batchId
+    public Execution execute(String idempotencyKey, String batchId, List<MultipartFile> files,
+                             Supplier<ProcessingResult> processing) {
+        if (!properties.enabled() || idempotencyKey == null || idempotencyKey.isBlank()) {
+            return new Execution(batchId, processing.get());
+        }
+
+        String fingerprint = fingerprint(files);
+
+        CompletableFuture<ProcessingResult> own = new CompletableFuture<>();
+        Batch batch;
+        synchronized (this) {
+            evictExpired();
+            batch = batches.get(idempotencyKey);
+            if (batch != null && !batch.fingerprint().equals(fingerprint)) {
+                throw new HotelValidationException("Idempotency-Key was already used for a different batch");
+            }
+            if (batch == null || isOutputMissing(batch)) {
+                batches.remove(idempotencyKey);
+                batch = new Batch(fingerprint, batchId, own, Instant.now());
+                batches.put(idempotencyKey, batch);
+                evictOverflow();
+            }
+        }
+
+        if (batch.result() != own) {
+            log.info("Batch {} was already submitted as {}, returning its result", idempotencyKey, batch.batchId());
+            return new Execution(batch.batchId(), await(batch.result()));
+        }
+
+        try {
+            ProcessingResult result = processing.get();
+            //images that failed or missed the deadline are only fetched again by running the batch again
+            if (result.failedImages() > 0 || result.cancelledImages() > 0) {
+                synchronized (this) {
+                    batches.remove(idempotencyKey, batch);
+                }
+            }
+            own.complete(result);
+            return new Execution(batchId, result);
+        } catch (RuntimeException e) {
+            //failed batches are not remembered, the next retry runs them again
+            synchronized (this) {
+                batches.remove(idempotencyKey, batch);
+            }
+            own.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public synchronized int size() {
+        return batches.size();
+    }
+
+    //order of the uploaded files does not matter, names do - hotel ids and sources are taken from them
+    static String fingerprint(List<MultipartFile> files) {
+        List<String> entries = new ArrayList<>();
+        for (MultipartFile file : files) {
+            try {
+                entries.add(file.getOriginalFilename() + ":" + ContentHash.sha256(file.getBytes()));
+            } catch (IOException e) {
+                throw new HotelFileProcessingException("Failed to read file: " + file.getOriginalFilename(), e);
+            }
+        }
+        Collections.sort(entries);
+        return ContentHash.sha256(String.join("\n", entries).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ProcessingResult await(CompletableFuture<ProcessingResult> result) {
+        try {
+            return result.get(properties.waitSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new HotelCapacityExceededException("Batch with this Idempotency-Key is still running",
+                    RETRY_AFTER_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HotelFileProcessingException("Interrupted while waiting for the running batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new HotelFileProcessingException("Failed to complete processing", e.getCause());
+        }
+    }
+
+    //a finished batch whose output was removed meanwhile has nothing to return
+    private boolean isOutputMissing(Batch batch) {
+        ProcessingResult result = batch.result().getNow(null);
+        if (result == null) return false;
+        Path outputFile = result.jsonFile() != null ? result.jsonFile() : result.manifestFile();
+        return outputFile != null && !Files.exists(outputFile);
+    }
+
+    private void evictExpired() {
+        Instant threshold = Instant.now().minus(Duration.ofSeconds(properties.ttlSeconds()));
+        batches.values().removeIf(batch -> batch.result().isDone() && batch.created().isBefore(threshold));
+    }
+
+    private void evictOverflow() {
+        Iterator<Batch> eldest = batches.values().iterator();
+        int overflow = batches.size() - properties.maxEntries();
+        while (overflow > 0 && eldest.hasNext()) {
+            //running batches stay, retries still have to find them
+            if (eldest.next().result().isDone()) {
+                eldest.remove();
+                overflow--;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.model.BatchDiagnostics;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//counters of one batch, always collected: every update is an adder increment or a single atomic,
+//the summary is only computed when a batch finishes
+public class BatchMetrics {
+    private final Queue<BatchDiagnostics.FileDiagnostics> files = new ConcurrentLinkedQueue<>();
+    private final LongAdder imageUrlsFound = new LongAdder();
+    private final Set<String> uniqueImageUrls = ConcurrentHashMap.newKeySet();
+    //bucket i counts latencies below 2^i milliseconds
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+    private final LongAdder validationNanos = new LongAdder();
+    private final AtomicInteger downloadsInFlight = new AtomicInteger();
+    private final AtomicInteger peakDownloadsInFlight = new AtomicInteger();
+    private final AtomicInteger peakDerivativeQueue = new AtomicInteger();
+    private volatile long serializationNanos;
+    private volatile long outputBytes;
+
+    private static final int LATENCY_BUCKETS = 64;
+
+    public void fileParsed(String filename, long bytes, long nanos) {
+        files.add(new BatchDiagnostics.FileDiagnostics(filename, bytes, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    public void imageUrlsFound(Set<String> urls) {
+        imageUrlsFound.add(urls.size());
+        uniqueImageUrls.addAll(urls);
+    }
+
+    //called when the HTTP exchange starts, time spent waiting for the fetch stage is not a download in flight
+    public void downloadStarted() {
+        peakDownloadsInFlight.accumulateAndGet(downloadsInFlight.incrementAndGet(), Math::max);
+    }
+
+    public void downloadFinished(long nanos) {
+        downloadsInFlight.decrementAndGet();
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        latencyBuckets.incrementAndGet(Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis)));
+        maxLatencyMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    //stopped at the batch deadline: its latency would only tell how long was left until the deadline
+    public void downloadCancelled() {
+        downloadsInFlight.decrementAndGet();
+    }
+
+    public void imageValidated(long nanos) {
+        validationNanos.add(nanos);
+    }
+
+    public void derivativeQueueDepth(int depth) {
+        peakDerivativeQueue.accumulateAndGet(depth, Math::max);
+    }
+
+    public void serialized(long nanos, long bytes) {
+        serializationNanos = nanos;
+        outputBytes = bytes;
+    }
+
+    public BatchDiagnostics snapshot(int hotels) {
+        return new BatchDiagnostics(
+                List.copyOf(files),
+                hotels,
+                imageUrlsFound.intValue(),
+                uniqueImageUrls.size(),
+                latencySummary(),
+                TimeUnit.NANOSECONDS.toMillis(validationNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(serializationNanos),
+                outputBytes,
+                peakDownloadsInFlight.get(),
+                peakDerivativeQueue.get()
+        );
+    }
+
+    private BatchDiagnostics.LatencySummary latencySummary() {
+        long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = latencyBuckets.get(i);
+            total += counts[i];
+        }
+        long max = maxLatencyMillis.get();
+        return new BatchDiagnostics.LatencySummary(total,
+                percentile(counts, total, 0.5, max),
+                percentile(counts, total, 0.9, max),
+                percentile(counts, total, 0.99, max),
+                max);
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                //no bucket bound is more useful than the largest latency actually seen
+                return Math.min((1L << i) - 1, max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,235 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.ProgressEventType;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.ProgressEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+@Slf4j
+@Service
+public class BatchProgressService {
+    private final AppProperties.Progress properties;
+    private final Map<String, BatchProgress> active = new ConcurrentHashMap<>();
+    private final Map<String, BatchProgress> finished;
+
+    //sending to a slow client blocks only its own virtual thread, never the pipeline publishing the event
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final Pattern BATCH_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    public BatchProgressService(AppProperties appProperties) {
+        this.properties = appProperties.progress();
+        this.finished = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BatchProgress> eldest) {
+                return size() > properties.retainedBatches();
+            }
+        });
+    }
+
+    public static String newBatchId() {
+        return UUID.randomUUID().toString();
+    }
+
+    public static String validateBatchId(String batchId) {
+        if (batchId == null || !BATCH_ID_PATTERN.matcher(batchId).matches()) {
+            throw new HotelValidationException("Invalid batch id: " + batchId);
+        }
+        return batchId;
+    }
+
+    //never blocks: events are only queued for the subscribers here
+    public void publish(String batchId, ProgressEventType type, String detail) {
+        BatchProgress progress = active.computeIfAbsent(batchId, BatchProgress::new);
+        if (type == ProgressEventType.STARTED) {
+            //a new run under a reused id, its subscribers must not get the previous run's final event
+            finished.remove(batchId);
+        }
+        synchronized (progress) {
+            ProgressEvent event = progress.record(type, detail);
+            for (Subscriber subscriber : progress.subscribers) {
+                if (!subscriber.queue.offer(event)) {
+                    log.warn("Dropping slow progress subscriber of batch {}", batchId);
+                    progress.subscribers.remove(subscriber);
+                    subscriber.dropped = true;
+                    subscriber.queue.clear();
+                }
+                schedule(subscriber);
+            }
+            if (type.isTerminal()) {
+                progress.subscribers.clear();
+                active.remove(batchId, progress);
+                finished.put(batchId, progress);
+            }
+        }
+    }
+
+    //the stream starts with the latest counters, so subscribing late or reconnecting loses nothing but history
+    public SseEmitter subscribe(String batchId) {
+        validateBatchId(batchId);
+        SseEmitter emitter = createEmitter(TimeUnit.SECONDS.toMillis(properties.emitterTimeoutSeconds()));
+        Subscriber subscriber = new Subscriber(emitter, properties.subscriberQueueCapacity());
+
+        //a running batch wins over a finished run of the same id
+        BatchProgress progress = active.get(batchId);
+        if (progress == null) {
+            progress = finished.get(batchId);
+        }
+        if (progress == null) {
+            //subscribing before the upload started is fine, the batch picks up the entry
+            progress = active.computeIfAbsent(batchId, BatchProgress::new);
+        }
+        BatchProgress subscribed = progress;
+        synchronized (progress) {
+            if (progress.last != null) {
+                subscriber.queue.offer(progress.last);
+            }
+            if (progress.last == null || !progress.last.type().isTerminal()) {
+                progress.subscribers.add(subscriber);
+            }
+        }
+
+        Runnable unsubscribe = () -> unsubscribe(subscribed, subscriber);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(error -> unsubscribe.run());
+        schedule(subscriber);
+        return emitter;
+    }
+
+    //latest event of every running batch, stuck ones stop changing
+    public List<ProgressEvent> activeBatches() {
+        return active.values().stream()
+                .map(progress -> progress.last)
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(ProgressEvent::timestamp))
+                .toList();
+    }
+
+    public Optional<ProgressEvent> latest(String batchId) {
+        BatchProgress progress = active.get(batchId);
+        if (progress == null) {
+            progress = finished.get(batchId);
+        }
+        return Optional.ofNullable(progress).map(value -> value.last);
+    }
+
+    SseEmitter createEmitter(long timeoutMillis) {
+        return new SseEmitter(timeoutMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+
+    private void unsubscribe(BatchProgress progress, Subscriber subscriber) {
+        synchronized (progress) {
+            progress.subscribers.remove(subscriber);
+            //entry created only by a subscriber for a batch that never started
+            if (progress.last == null && progress.subscribers.isEmpty()) {
+                active.remove(progress.batchId, progress);
+            }
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.draining.compareAndSet(false, true)) {
+            try {
+                sender.execute(() -> drain(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.draining.set(false);
+            }
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            while (true) {
+                if (subscriber.dropped) {
+                    subscriber.emitter.complete();
+                    return;
+                }
+                ProgressEvent event = subscriber.queue.poll();
+                if (event == null) {
+                    subscriber.draining.set(false);
+                    //an event queued between poll and reset would otherwise wait for the next publish
+                    if (subscriber.queue.isEmpty() && !subscriber.dropped
+                            || !subscriber.draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                subscriber.emitter.send(SseEmitter.event()
+                        .name(event.type().name())
+                        .data(event));
+                if (event.type().isTerminal()) {
+                    subscriber.emitter.complete();
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            //client went away, completion callbacks unsubscribe it
+            log.debug("Progress subscriber disconnected: {}", e.getMessage());
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+
+    private static class BatchProgress {
+        private final String batchId;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private volatile ProgressEvent last;
+        private int filesParsed;
+        private int filesSkipped;
+        private int hotelsMerged;
+        private int imagesQueued;
+        private int imagesDownloaded;
+        private int imagesFailed;
+        private int imagesCancelled;
+
+        BatchProgress(String batchId) {
+            this.batchId = batchId;
+        }
+
+        //called under the instance lock, which keeps the event order the same for every subscriber
+        ProgressEvent record(ProgressEventType type, String detail) {
+            switch (type) {
+                case FILE_PARSED -> filesParsed++;
+                case FILE_SKIPPED -> filesSkipped++;
+                case HOTEL_MERGED -> hotelsMerged++;
+                case IMAGE_QUEUED -> imagesQueued++;
+                case IMAGE_DOWNLOADED -> imagesDownloaded++;
+                case IMAGE_FAILED -> imagesFailed++;
+                case IMAGE_CANCELLED -> imagesCancelled++;
+                default -> {
+                }
+            }
+            last = new ProgressEvent(batchId, type, detail, filesParsed, filesSkipped, hotelsMerged,
+                    imagesQueued, imagesDownloaded, imagesFailed, imagesCancelled, LocalDateTime.now());
+            return last;
+        }
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final BlockingQueue<ProgressEvent> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean dropped;
+
+        Subscriber(SseEmitter emitter, int capacity) {
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelFileProcessingException;
+import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+//distributed batch mode: instances pointed at the same input directory claim its hotels through lease files,
+//write the fragment of every claimed hotel as a partial output and the instance seeing all hotels done merges them
+@Slf4j
+@Service
+//nothing requests this bean, the fast-start profile's lazy initialization would never start the polling
+@Lazy(false)
+public class ClusterWorker {
+    private final AppProperties.Cluster properties;
+    private final FileProcessingService fileProcessingService;
+    private final HotelConverterService hotelConverterService;
+    private final HotelJsonWriter hotelJsonWriter;
+    private final int shards;
+    private final String instanceId;
+    //leases held right now, kept alive by the heartbeat
+    private final Set<FileLease> activeLeases = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    private static final String CLUSTER_DIR = ".cluster";
+    private static final String LEASES_DIR = "leases";
+    private static final String DONE_DIR = "done";
+    private static final String PARTIALS_DIR = "partials";
+    private static final String OUTPUT_DIR = "output";
+    private static final String IMAGES_FOLDER_NAME = "images";
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String PARTIAL_SUFFIX = ".json";
+    //hotel ids come from names of visible files, so the dot keeps these apart from them
+    private static final String MERGE_LEASE = ".merge" + LEASE_SUFFIX;
+    private static final String MERGED_STAMP = ".merged";
+
+    public record RunSummary(
+            int groups,
+            //groups this instance parsed and wrote a partial output for
+            int processed,
+            boolean merged
+    ) {}
+
+    //done marker: fingerprint of the files the group was processed from and the instance holding its partial,
+    //blank instance - the group failed and is left out of the merge until its files change
+    private record DoneMarker(String fingerprint, String instanceId) {}
+
+    public ClusterWorker(AppProperties appProperties,
+                         FileProcessingService fileProcessingService,
+                         HotelConverterService hotelConverterService,
+                         HotelJsonWriter hotelJsonWriter) {
+        this.properties = appProperties.cluster();
+        this.fileProcessingService = fileProcessingService;
+        this.hotelConverterService = hotelConverterService;
+        this.hotelJsonWriter = hotelJsonWriter;
+        this.shards = appProperties.output().shards();
+        this.instanceId = (properties.instanceId().isBlank() ? defaultInstanceId() : properties.instanceId())
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.enabled()) return;
+        if (properties.inputDir().isBlank()) {
+            throw new IllegalStateException("app.cluster.input-dir is required in the cluster mode");
+        }
+        scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.scheduleWithFixedDelay(this::poll, 0, properties.pollSeconds(), TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::heartbeat,
+                properties.heartbeatSeconds(), properties.heartbeatSeconds(), TimeUnit.SECONDS);
+        log.info("Cluster instance {} watching {}", instanceId, properties.inputDir());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        //other instances can pick the groups up right away instead of waiting for the leases to go stale
+        activeLeases.forEach(FileLease::release);
+    }
+
+    //one pass over the input directory: claims and processes every group not done yet, then merges if all are
+    public RunSummary runOnce() {
+        Path clusterDir = Path.of(properties.inputDir()).resolve(CLUSTER_DIR);
+        try {
+            for (String dir : List.of(LEASES_DIR, DONE_DIR, OUTPUT_DIR)) {
+                Files.createDirectories(clusterDir.resolve(dir));
+            }
+            Files.createDirectories(clusterDir.resolve(PARTIALS_DIR).resolve(instanceId));
+
+            Map<String, List<Path>> groups = listGroups(Path.of(properties.inputDir()));
+            Map<String, String> fingerprints = new TreeMap<>();
+            List<String> pending = new ArrayList<>();
+            for (Map.Entry<String, List<Path>> group : groups.entrySet()) {
+                String fingerprint = fingerprint(group.getValue());
+                fingerprints.put(group.getKey(), fingerprint);
+                if (!readDone(clusterDir, group.getKey()).map(marker -> marker.fingerprint().equals(fingerprint))
+                        .orElse(false)) {
+                    pending.add(group.getKey());
+                }
+            }
+            //instances starting together don't all contend for the same leases
+            Collections.shuffle(pending);
+
+            int processed = 0;
+            int threads = properties.threads() > 0 ? properties.threads() : Runtime.getRuntime().availableProcessors();
+            try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, pending.size())))) {
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (String hotelId : pending) {
+                    results.add(executor.submit(() ->
+                            processGroup(clusterDir, hotelId, groups.get(hotelId), fingerprints.get(hotelId))));
+                }
+                for (Future<Boolean> result : results) {
+                    if (result.get()) processed++;
+                }
+            }
+            return new RunSummary(groups.size(), processed, mergeIfComplete(clusterDir, fingerprints));
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to process cluster input " + properties.inputDir(), e);
+        } catch (ExecutionException e) {
+            throw new HotelFileProcessingException("Failed to process cluster input " + properties.inputDir(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HotelFileProcessingException("Interrupted while processing " + properties.inputDir(), e);
+        }
+    }
+
+    //true if this instance processed the group and wrote its partial output
+    private boolean processGroup(Path clusterDir, String hotelId, List<Path> files, String fingerprint)
+            throws IOException {
+        Optional<FileLease> claimed = FileLease.tryAcquire(
+                clusterDir.resolve(LEASES_DIR).resolve(hotelId + LEASE_SUFFIX), instanceId, leaseDuration());
+        if (claimed.isEmpty()) return false;
+        FileLease lease = claimed.get();
+        activeLeases.add(lease);
+        try {
+            //another instance may have finished the group between listing and claiming it
+            if (readDone(clusterDir, hotelId).map(marker -> marker.fingerprint().equals(fingerprint)).orElse(false)) {
+                return false;
+            }
+
+            //merged and with its images downloaded like any other batch, only its output is left to the merge
+            String batchId = BatchProgressService.newBatchId();
+            log.debug("Instance {} processes hotel {} as batch {}", instanceId, hotelId, batchId);
+            HotelConverterService.Batch batch = hotelConverterService.startFragmentBatch(batchId,
+                    clusterDir.resolve(OUTPUT_DIR).resolve(IMAGES_FOLDER_NAME));
+            try {
+                for (Path file : files) {
+                    String filename = file.getFileName().toString();
+                    long parseStart = System.nanoTime();
+                    Map<String, Object> content;
+                    try (InputStream input = Files.newInputStream(file)) {
+                        content = fileProcessingService.processStream(filename, input).content();
+                    }
+                    batch.metrics().fileParsed(filename, Files.size(file), System.nanoTime() - parseStart);
+                    batch.accept(filename, content);
+                }
+            } catch (HotelFileProcessingException | HotelValidationException e) {
+                batch.fail(e);
+                //a broken feed file would otherwise be claimed again on every poll
+                log.error("Failed to process hotel {}: {}", hotelId, e.getMessage());
+                if (lease.renew()) {
+                    writeAtomically(clusterDir.resolve(DONE_DIR).resolve(hotelId), fingerprint + "\n");
+                }
+                return false;
+            } catch (IOException | RuntimeException e) {
+                batch.fail(e);
+                throw e;
+            }
+
+            byte[] fragment = hotelJsonWriter.encode(batch.finishHotels().get(hotelId));
+
+            //work done under a lease that was taken over is dropped, the new holder redoes the group
+            if (!lease.renew()) {
+                log.warn("Lease of hotel {} was taken over, discarding its partial output", hotelId);
+                return false;
+            }
+            writeAtomically(partialPath(clusterDir, instanceId, hotelId), fragment);
+            writeAtomically(clusterDir.resolve(DONE_DIR).resolve(hotelId), fingerprint + "\n" + instanceId);
+            log.debug("Instance {} processed hotel {}", instanceId, hotelId);
+            return true;
+        } finally {
+            activeLeases.remove(lease);
+            lease.release();
+        }
+    }
+
+    //merges once per state of the input: the stamp holds the fingerprint of all groups the output was built from
+    private boolean mergeIfComplete(Path clusterDir, Map<String, String> fingerprints) throws IOException {
+        if (fingerprints.isEmpty()) return false;
+        Path outputDir = clusterDir.resolve(OUTPUT_DIR);
+        Path stamp = outputDir.resolve(MERGED_STAMP);
+        String inputFingerprint = ContentHash.sha256(fingerprints.toString().getBytes(StandardCharsets.UTF_8));
+        if (inputFingerprint.equals(readString(stamp))) return false;
+
+        Map<String, Path> partials = new TreeMap<>();
+        for (Map.Entry<String, String> group : fingerprints.entrySet()) {
+            Optional<DoneMarker> marker = readDone(clusterDir, group.getKey());
+            if (marker.isEmpty() || !marker.get().fingerprint().equals(group.getValue())) {
+                return false;
+            }
+            if (!marker.get().instanceId().isEmpty()) {
+                partials.put(group.getKey(), partialPath(clusterDir, marker.get().instanceId(), group.getKey()));
+            }
+        }
+
+        Optional<FileLease> claimed = FileLease.tryAcquire(
+                clusterDir.resolve(LEASES_DIR).resolve(MERGE_LEASE), instanceId, leaseDuration());
+        if (claimed.isEmpty()) return false;
+        FileLease lease = claimed.get();
+        activeLeases.add(lease);
+        try {
+            if (inputFingerprint.equals(readString(stamp))) return false;
+            //fragments are spliced as they are, merging costs one pass over the bytes instead of a serialization
+            Path result = hotelJsonWriter.writeOutput(new TreeSet<>(partials.keySet()),
+                    hotelId -> Files.readAllBytes(partials.get(hotelId)), outputDir, shards);
+            if (!lease.renew()) return false;
+            writeAtomically(stamp, inputFingerprint);
+            log.info("Instance {} merged {} hotels into {}", instanceId, partials.size(), result);
+            return true;
+        } finally {
+            activeLeases.remove(lease);
+            lease.release();
+        }
+    }
+
+    private void poll() {
+        try {
+            RunSummary summary = runOnce();
+            if (summary.processed() > 0) {
+                log.info("Instance {} processed {} of {} hotel groups", instanceId, summary.processed(), summary.groups());
+            }
+        } catch (RuntimeException e) {
+            log.error("Cluster poll of {} failed", properties.inputDir(), e);
+        }
+    }
+
+    private void heartbeat() {
+        activeLeases.forEach(lease -> {
+            if (!lease.renew()) {
+                log.warn("Lost lease {}", lease.file().getFileName());
+            }
+        });
+    }
+
+    //feed files grouped by hotel id, so GIATA and COAH of one hotel are always processed together
+    private static Map<String, List<Path>> listGroups(Path inputDir) throws IOException {
+        Map<String, List<Path>> groups = new TreeMap<>();
+        try (Stream<Path> files = Files.list(inputDir)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> FileProcessingService.isFeedFile(file.getFileName().toString()))
+                    .sorted()
+                    .forEach(file -> groups.computeIfAbsent(file.getFileName().toString().split("-")[0],
+                            k -> new ArrayList<>()).add(file));
+        }
+        return groups;
+    }
+
+    //a file replaced or still being copied changes the fingerprint, so its group is processed again
+    private static String fingerprint(List<Path> files) throws IOException {
+        StringBuilder state = new StringBuilder();
+        for (Path file : files) {
+            state.append(file.getFileName()).append(':')
+                    .append(Files.size(file)).append(':')
+                    .append(Files.getLastModifiedTime(file).toMillis()).append('\n');
+        }
+        return ContentHash.sha256(state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Optional<DoneMarker> readDone(Path clusterDir, String hotelId) throws IOException {
+        String content = readString(clusterDir.resolve(DONE_DIR).resolve(hotelId));
+        if (content == null) return Optional.empty();
+        String[] lines = content.split("\n", -1);
+        return Optional.of(new DoneMarker(lines[0], lines.length > 1 ? lines[1] : ""));
+    }
+
+    private static String readString(Path file) throws IOException {
+        try {
+            return Files.readString(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Path partialPath(Path clusterDir, String instanceId, String hotelId) {
+        return clusterDir.resolve(PARTIALS_DIR).resolve(instanceId).resolve(hotelId + PARTIAL_SUFFIX);
+    }
+
+    //readers on other instances see either the previous or the complete new content
+    private void writeAtomically(Path target, String content) throws IOException {
+        writeAtomically(target, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + "." + instanceId + ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Duration leaseDuration() {
+        return Duration.ofSeconds(properties.leaseSeconds());
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,170 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.freshcells.converter.enums.CompactStorage;
+import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.model.RawJson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+//merged hotels of one batch kept as Smile bytes instead of parsed trees: every GIATA and COAH document is encoded
+//right after it is merged and appended to large chunks, the heap holds only the hotel ids and their slices;
+//at output time the bytes are streamed into the same JSON fragments HotelJsonWriter.encode writes for HotelData
+public class CompactHotelStore implements Closeable {
+    private final HotelJsonWriter hotelJsonWriter;
+    private final CompactStorage storage;
+    private final int chunkBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final Map<String, Slice[]> hotels = new HashMap<>();
+    private FileChannel mappedFile;
+    private long storedBytes;
+
+    private static final SmileMapper SMILE_MAPPER = new SmileMapper();
+    //HotelData components in declaration order, as the record serializer writes them
+    private static final String GIATA_FIELD = "giata";
+    private static final String COA_FIELD = "coa";
+
+    private record Slice(int chunk, int offset, int length) {}
+
+    public CompactHotelStore(HotelJsonWriter hotelJsonWriter, CompactStorage storage, int chunkBytes) {
+        this.hotelJsonWriter = hotelJsonWriter;
+        this.storage = storage;
+        this.chunkBytes = chunkBytes;
+    }
+
+    //replaces the GIATA or COAH part of the hotel, like HotelData.withGiata/withCoa
+    public synchronized void put(String hotelId, FileType fileType, Map<String, Object> content) throws IOException {
+        Slice slice = append(SMILE_MAPPER.writeValueAsBytes(content));
+        hotels.computeIfAbsent(hotelId, k -> new Slice[FileType.values().length])[fileType.ordinal()] = slice;
+    }
+
+    public synchronized SortedSet<String> hotelIds() {
+        return new TreeSet<>(hotels.keySet());
+    }
+
+    public synchronized int size() {
+        return hotels.size();
+    }
+
+    public synchronized long storedBytes() {
+        return storedBytes;
+    }
+
+    //safe to call from several threads once all hotels are put
+    public byte[] fragment(String hotelId) throws IOException {
+        Slice[] parts;
+        synchronized (this) {
+            parts = hotels.get(hotelId);
+        }
+        return hotelJsonWriter.encode(generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(GIATA_FIELD);
+            copy(parts[FileType.GIATA.ordinal()], generator);
+            generator.writeFieldName(COA_FIELD);
+            copy(parts[FileType.COA.ordinal()], generator);
+            generator.writeEndObject();
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        chunks.clear();
+        hotels.clear();
+        if (mappedFile != null) {
+            mappedFile.close();
+        }
+    }
+
+    private Slice append(byte[] bytes) throws IOException {
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < bytes.length) {
+            //a document larger than a chunk gets a chunk of its own
+            chunk = allocate(Math.max(chunkBytes, bytes.length));
+            chunks.add(chunk);
+        }
+        Slice slice = new Slice(chunks.size() - 1, chunk.position(), bytes.length);
+        chunk.put(bytes);
+        storedBytes += bytes.length;
+        return slice;
+    }
+
+    private ByteBuffer allocate(int capacity) throws IOException {
+        return switch (storage) {
+            case HEAP -> ByteBuffer.allocate(capacity);
+            case DIRECT -> ByteBuffer.allocateDirect(capacity);
+            case MAPPED -> {
+                if (mappedFile == null) {
+                    Path file = Files.createTempFile("hotels-", ".smile");
+                    mappedFile = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                yield mappedFile.map(FileChannel.MapMode.READ_WRITE, mappedFile.size(), capacity);
+            }
+        };
+    }
+
+    //missing part - empty object, as in HotelData.empty()
+    private void copy(Slice slice, JsonGenerator generator) throws IOException {
+        if (slice == null) {
+            generator.writeStartObject();
+            generator.writeEndObject();
+            return;
+        }
+        ByteBuffer bytes;
+        synchronized (this) {
+            bytes = chunks.get(slice.chunk()).slice(slice.offset(), slice.length());
+        }
+        try (JsonParser parser = SMILE_MAPPER.createParser(new ByteBufferBackedInputStream(bytes))) {
+            parser.nextToken();
+            copy(parser, generator);
+        }
+    }
+
+    private static void copy(JsonParser parser, JsonGenerator generator) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT -> {
+                String name = parser.nextFieldName();
+                if (RawJson.JSON_FIELD.equals(name)) {
+                    copyRawJson(parser, generator);
+                    return;
+                }
+                generator.writeStartObject();
+                for (; name != null; name = parser.nextFieldName()) {
+                    generator.writeFieldName(name);
+                    parser.nextToken();
+                    copy(parser, generator);
+                }
+                generator.writeEndObject();
+            }
+            case START_ARRAY -> {
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copy(parser, generator);
+                }
+                generator.writeEndArray();
+            }
+            default -> generator.copyCurrentEvent(parser);
+        }
+    }
+
+    //pass-through subtrees are stored as marker objects, see RawJson.serialize
+    private static void copyRawJson(JsonParser parser, JsonGenerator generator) throws IOException {
+        parser.nextToken();
+        byte[] json = parser.getBinaryValue();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+            parser.skipChildren();
+        }
+        generator.writeObject(new RawJson(json, Set.of()));
+    }
+}
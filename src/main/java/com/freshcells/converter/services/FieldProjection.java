@@ -0,0 +1,204 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.filter.TokenFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.FileType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//include/exclude path rules per file type, applied as a token filter while parsing:
+//dropped subtrees never become maps or lists, pass-through subtrees are kept as raw JSON
+@Slf4j
+@Component
+public class FieldProjection {
+    private final Map<FileType, TokenFilter> filters = new EnumMap<>(FileType.class);
+    private final Map<FileType, String> signatures = new EnumMap<>(FileType.class);
+    private final Map<FileType, List<String[]>> passThrough = new EnumMap<>(FileType.class);
+    private final Map<PassThroughKey, ObjectMapper> passThroughMappers = new ConcurrentHashMap<>();
+
+    private static final String SEPARATOR = "/";
+    private static final String ANY_FIELD = "*";
+    private static final String ANY_DEPTH = "**";
+
+    public FieldProjection(AppProperties appProperties) {
+        AppProperties.Projection projection = appProperties.projection();
+        register(FileType.GIATA, projection.giata(), projection.keepImageUrls());
+        register(FileType.COA, projection.coa(), projection.keepImageUrls());
+    }
+
+    //null - the file is parsed completely
+    public TokenFilter filterFor(String filename) {
+        return FileType.find(filename).map(filters::get).orElse(null);
+    }
+
+    //identifies the rules a result was parsed with, cached results of other rules must not be reused
+    public String signature(String filename) {
+        return FileType.find(filename).map(signatures::get).orElse(null);
+    }
+
+    //null - nothing is passed through, the given mapper builds the whole tree
+    public ObjectMapper passThroughMapper(String filename, ObjectMapper mapper) {
+        Optional<FileType> fileType = FileType.find(filename);
+        if (fileType.isEmpty() || !passThrough.containsKey(fileType.get())) return null;
+
+        //mappers are identity-compared, one copy per file type and source format
+        return passThroughMappers.computeIfAbsent(new PassThroughKey(fileType.get(), mapper), key -> mapper.copy()
+                .registerModule(new SimpleModule("pass-through-" + key.fileType())
+                        .addDeserializer(Object.class, new PassThroughDeserializer(passThrough.get(key.fileType())))));
+    }
+
+    private void register(FileType fileType, AppProperties.ProjectionRules rules, boolean keepImageUrls) {
+        List<String[]> includes = parse(rules.include());
+        List<String[]> excludes = parse(rules.exclude());
+        List<String[]> passed = parse(rules.passThrough());
+        if (!passed.isEmpty()) {
+            passThrough.put(fileType, passed);
+            log.info("Raw pass-through for {}: {}", fileType, rules.passThrough());
+        }
+        if (!includes.isEmpty() || !excludes.isEmpty()) {
+            filters.put(fileType, new PathFilter(new String[0], includes, excludes, includes.isEmpty(), keepImageUrls));
+            log.info("Field projection for {}: include {}, exclude {}", fileType, rules.include(), rules.exclude());
+        }
+        if (includes.isEmpty() && excludes.isEmpty() && passed.isEmpty()) return;
+
+        String description = rules.include() + "|" + rules.exclude() + "|" + rules.passThrough() + "|" + keepImageUrls;
+        signatures.put(fileType, ContentHash.sha256(description.getBytes(StandardCharsets.UTF_8)).substring(0, 12));
+    }
+
+    private static List<String[]> parse(List<String> paths) {
+        return paths.stream()
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .map(path -> Arrays.stream(path.split(SEPARATOR)).filter(segment -> !segment.isEmpty())
+                        .toArray(String[]::new))
+                .toList();
+    }
+
+    static boolean matches(String[] rule, int ruleIndex, String[] path, int pathIndex) {
+        if (ruleIndex == rule.length) return pathIndex == path.length;
+        if (ANY_DEPTH.equals(rule[ruleIndex])) {
+            for (int skipped = pathIndex; skipped <= path.length; skipped++) {
+                if (matches(rule, ruleIndex + 1, path, skipped)) return true;
+            }
+            return false;
+        }
+        return pathIndex < path.length
+                && segmentMatches(rule[ruleIndex], path[pathIndex])
+                && matches(rule, ruleIndex + 1, path, pathIndex + 1);
+    }
+
+    //true if some path below the given one can still match the rule
+    static boolean matchesBelow(String[] rule, int ruleIndex, String[] path, int pathIndex) {
+        if (ruleIndex == rule.length) return false;
+        if (ANY_DEPTH.equals(rule[ruleIndex])) return true;
+        if (pathIndex == path.length) return true;
+        return segmentMatches(rule[ruleIndex], path[pathIndex])
+                && matchesBelow(rule, ruleIndex + 1, path, pathIndex + 1);
+    }
+
+    private static boolean segmentMatches(String ruleSegment, String field) {
+        return ANY_FIELD.equals(ruleSegment) || ruleSegment.equals(field);
+    }
+
+    static boolean anyMatches(List<String[]> rules, String[] path) {
+        return rules.stream().anyMatch(rule -> matches(rule, 0, path, 0));
+    }
+
+    private static boolean anyMatchesBelow(List<String[]> rules, String[] path) {
+        return rules.stream().anyMatch(rule -> matchesBelow(rule, 0, path, 0));
+    }
+
+    private record PassThroughKey(FileType fileType, ObjectMapper mapper) {}
+
+    private static class PathFilter extends TokenFilter {
+        private final String[] path;
+        private final List<String[]> includes;
+        private final List<String[]> excludes;
+        //inside an included subtree (or no include rules at all) everything not excluded is kept
+        private final boolean included;
+        private final boolean keepImageUrls;
+
+        PathFilter(String[] path, List<String[]> includes, List<String[]> excludes,
+                   boolean included, boolean keepImageUrls) {
+            this.path = path;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.included = included;
+            this.keepImageUrls = keepImageUrls;
+        }
+
+        @Override
+        public TokenFilter includeProperty(String name) {
+            String[] child = Arrays.copyOf(path, path.length + 1);
+            child[path.length] = name;
+
+            if (anyMatches(excludes, child)) {
+                return dropped();
+            }
+            boolean childIncluded = included || anyMatches(includes, child);
+            if (childIncluded) {
+                return anyMatchesBelow(excludes, child)
+                        ? new PathFilter(child, includes, excludes, true, keepImageUrls)
+                        : TokenFilter.INCLUDE_ALL;
+            }
+            return anyMatchesBelow(includes, child)
+                    ? new PathFilter(child, includes, excludes, false, keepImageUrls)
+                    : dropped();
+        }
+
+        @Override
+        protected boolean _includeScalar() {
+            return included;
+        }
+
+        @Override
+        public boolean includeEmptyObject(boolean contentsFiltered) {
+            return included && !contentsFiltered;
+        }
+
+        @Override
+        public boolean includeEmptyArray(boolean contentsFiltered) {
+            return included && !contentsFiltered;
+        }
+
+        private TokenFilter dropped() {
+            //null makes the parser skip the subtree without looking at it
+            return keepImageUrls ? ImageUrlFilter.INSTANCE : null;
+        }
+    }
+
+    //keeps only what HotelConverterService.extractAllImageUrls looks for: 'image' elements and image url strings
+    private static class ImageUrlFilter extends TokenFilter {
+        static final ImageUrlFilter INSTANCE = new ImageUrlFilter();
+
+        @Override
+        public TokenFilter includeProperty(String name) {
+            return HotelConverterService.IMAGE_TAG_NAME.equals(name) ? TokenFilter.INCLUDE_ALL : this;
+        }
+
+        @Override
+        public boolean includeValue(JsonParser parser) throws IOException {
+            return parser.currentToken() == JsonToken.VALUE_STRING
+                    && HotelConverterService.IMAGE_URL_PATTERN.matcher(parser.getText()).matches();
+        }
+
+        @Override
+        public boolean includeEmptyObject(boolean contentsFiltered) {
+            return false;
+        }
+
+        @Override
+        public boolean includeEmptyArray(boolean contentsFiltered) {
+            return false;
+        }
+    }
+}
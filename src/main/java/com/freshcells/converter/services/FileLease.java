@@ -0,0 +1,109 @@
+package com.freshcells.converter.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+//claim on a shared directory entry: the lease file is created exclusively and holds a token unique to the holder,
+//heartbeats move its modification time forward, a lease not renewed for 'staleAfter' may be taken over;
+//instances compare their clock with the file server's, so skew has to stay well below 'staleAfter'
+@Slf4j
+public class FileLease {
+    private final Path file;
+    private final String token;
+
+    private static final String TOMBSTONE_SUFFIX = ".stale";
+
+    private FileLease(Path file, String token) {
+        this.file = file;
+        this.token = token;
+    }
+
+    public static Optional<FileLease> tryAcquire(Path file, String owner, Duration staleAfter) throws IOException {
+        String token = owner + " " + UUID.randomUUID();
+        if (create(file, token)) {
+            return Optional.of(new FileLease(file, token));
+        }
+        if (!isStale(file, staleAfter)) {
+            return Optional.empty();
+        }
+
+        //rename is atomic: of several instances taking over the same stale lease only one gets the file
+        Path tombstone = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + TOMBSTONE_SUFFIX);
+        try {
+            Files.move(file, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        if (!isStale(tombstone, staleAfter)) {
+            //the stale lease was replaced by a fresh one in the meantime, hand it back
+            try {
+                Files.move(tombstone, file);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(tombstone);
+            }
+            return Optional.empty();
+        }
+        String previousOwner = read(tombstone);
+        Files.deleteIfExists(tombstone);
+        if (!create(file, token)) {
+            return Optional.empty();
+        }
+        log.info("Took over stale lease {} from {}", file.getFileName(), previousOwner);
+        return Optional.of(new FileLease(file, token));
+    }
+
+    //false - the lease was taken over, work done under it must be discarded
+    public boolean renew() {
+        try {
+            if (!token.equals(read(file))) return false;
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void release() {
+        try {
+            if (token.equals(read(file))) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            log.debug("Lease {} already gone: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    private static boolean create(Path file, String token) throws IOException {
+        try {
+            Files.write(file, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private static boolean isStale(Path file, Duration staleAfter) throws IOException {
+        try {
+            Instant modified = Files.getLastModifiedTime(file).toInstant();
+            return modified.plus(staleAfter).isBefore(Instant.now());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+}
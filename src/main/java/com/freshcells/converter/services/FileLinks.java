@@ -0,0 +1,31 @@
+package com.freshcells.converter.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Slf4j
+public final class FileLinks {
+    private static final AtomicBoolean copyFallbackReported = new AtomicBoolean();
+
+    private FileLinks() {
+    }
+
+    //hard link where the file system allows it, the source may be on another volume; a copy costs the space
+    //linking is there to save, so the first one is reported
+    public static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (copyFallbackReported.compareAndSet(false, true)) {
+                log.warn("Cannot hard link images into {} ({}), copying them instead", target.getParent(), e.toString());
+            } else {
+                log.debug("Copying image {} to {}: {}", source, target, e.toString());
+            }
+            Files.copy(source, target);
+        }
+    }
+}
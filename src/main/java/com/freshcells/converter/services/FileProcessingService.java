@@ -1,30 +1,62 @@
 package com.freshcells.converter.services;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.core.filter.TokenFilter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.freshcells.converter.enums.FileExtension;
+import com.freshcells.converter.enums.FileType;
 import com.freshcells.converter.exceptions.HotelFileProcessingException;
 import com.freshcells.converter.exceptions.HotelValidationException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.Optional;
 
 @Slf4j
 @Service
 public class FileProcessingService {
     private final ObjectMapper jsonMapper;
     private final XmlMapper xmlMapper;
+    private final ParseCacheService parseCacheService;
+    private final FieldProjection fieldProjection;
+
+    public record ParsedFile(
+            Map<String, Object> content,
+            String contentHash,
+            long bytes
+    ) {}
 
     public FileProcessingService(
             @Qualifier("jsonMapper") ObjectMapper jsonMapper,
-            @Qualifier("xmlMapper") XmlMapper xmlMapper) {
+            @Qualifier("xmlMapper") XmlMapper xmlMapper,
+            ParseCacheService parseCacheService,
+            FieldProjection fieldProjection) {
         this.jsonMapper = jsonMapper;
         this.xmlMapper = xmlMapper;
+        this.parseCacheService = parseCacheService;
+        this.fieldProjection = fieldProjection;
+    }
+
+    //GIATA or COAH file in a supported format; hidden files are uploads still in progress or bookkeeping
+    public static boolean isFeedFile(String filename) {
+        return !filename.startsWith(".")
+                && FileType.find(filename).isPresent()
+                && FileExtension.find(FilenameUtils.getExtension(filename)).isPresent();
     }
 
     public Map<String, Object> processFile(MultipartFile file) {
@@ -34,15 +66,76 @@ public class FileProcessingService {
                 throw new HotelValidationException("Filename is missing");
             }
 
-            String fileExtension = FilenameUtils.getExtension(filename);
+            FileExtension fileExtension = FileExtension.fromExtension(FilenameUtils.getExtension(filename));
+            if (!parseCacheService.isEnabled()) {
+                return parse(fileExtension, file.getInputStream(), filename);
+            }
 
-            return switch (FileExtension.fromExtension(fileExtension)) {
-                case XML -> xmlMapper.readValue(file.getInputStream(), Map.class);
-                case JSON -> jsonMapper.readValue(file.getInputStream(), Map.class);
-            };
+            //re-sent feed files are recognized by content, a hit skips parsing completely
+            String cacheKey = cacheKey(ContentHash.sha256(file.getBytes()), fileExtension, filename);
+            Optional<Map<String, Object>> cached = parseCacheService.get(cacheKey);
+            if (cached.isPresent()) {
+                log.debug("Parse cache hit for {}", filename);
+                return cached.get();
+            }
+            Map<String, Object> content = parse(fileExtension, file.getInputStream(), filename);
+            parseCacheService.put(cacheKey, content);
+            return content;
         } catch (IOException e) {
             throw new HotelFileProcessingException("Failed to process file: " + file.getOriginalFilename(), e);
         }
     }
-}
 
+    //parses a part while it is still being received, the content hash is computed on the way
+    public ParsedFile processStream(String filename, InputStream input) {
+        if (filename == null) {
+            throw new HotelValidationException("Filename is missing");
+        }
+        FileExtension fileExtension = FileExtension.fromExtension(FilenameUtils.getExtension(filename));
+
+        MessageDigest digest = ContentHash.newDigest();
+        try (BoundedInputStream counted = BoundedInputStream.builder().setInputStream(input).get();
+             DigestInputStream content = new DigestInputStream(counted, digest)) {
+            Map<String, Object> parsed = parse(fileExtension, CloseShieldInputStream.wrap(content), filename);
+            //parsers stop at the end of the root element, trailing bytes still belong to the hashed content
+            content.transferTo(OutputStream.nullOutputStream());
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            if (parseCacheService.isEnabled()) {
+                parseCacheService.put(cacheKey(contentHash, fileExtension, filename), parsed);
+            }
+            return new ParsedFile(parsed, contentHash, counted.getCount());
+        } catch (IOException e) {
+            throw new HotelFileProcessingException("Failed to process file: " + filename, e);
+        }
+    }
+
+    private String cacheKey(String contentHash, FileExtension fileExtension, String filename) {
+        String key = ParseCacheService.key(contentHash, fileExtension);
+        String projection = fieldProjection.signature(filename);
+        return projection == null ? key : key + "-" + projection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parse(FileExtension fileExtension, InputStream content, String filename)
+            throws IOException {
+        ObjectMapper mapper = switch (fileExtension) {
+            case XML -> xmlMapper;
+            case JSON -> jsonMapper;
+        };
+        ObjectMapper passThrough = fieldProjection.passThroughMapper(filename, mapper);
+        if (passThrough != null) {
+            mapper = passThrough;
+        }
+        TokenFilter projection = fieldProjection.filterFor(filename);
+        if (projection == null) {
+            return mapper.readValue(content, Map.class);
+        }
+
+        //excluded subtrees are skipped token by token and never reach the deserializer
+        try (JsonParser parser = new FilteringParserDelegate(
+                mapper.createParser(content), projection, TokenFilter.Inclusion.INCLUDE_ALL_AND_PATH, true)) {
+            Map<String, Object> projected = mapper.readValue(parser, Map.class);
+            return projected == null ? new HashMap<>() : projected;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.freshcells.converter.services;
 
 import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.DownloadOutcome;
 import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.model.HotelData;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -15,24 +17,50 @@ import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 public class FileSystemService {
     private final AppProperties appProperties;
+    private final HotelJsonWriter hotelJsonWriter;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ImageDedupService imageDedupService;
+    private final PipelineService pipelineService;
     private final HttpClient httpClient;
 
     private final static String DATE_FORMAT_PATTERN = "yyyyMMdd_HHmmss";
+    private final static Duration IMAGE_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private final static String HOTELS_FILE_PREFIX = "hotels";
 
-    public FileSystemService(AppProperties appProperties) {
+    public FileSystemService(AppProperties appProperties,
+                             HotelJsonWriter hotelJsonWriter,
+                             ImageDerivativeService imageDerivativeService,
+                             ImageDedupService imageDedupService,
+                             PipelineService pipelineService) {
         this.appProperties = appProperties;
+        this.hotelJsonWriter = hotelJsonWriter;
+        this.imageDerivativeService = imageDerivativeService;
+        this.imageDedupService = imageDedupService;
+        this.pipelineService = pipelineService;
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(appProperties.httpClientTimeoutSeconds()))
                 .build();
@@ -47,8 +75,18 @@ public class FileSystemService {
                     //remove redundant separators
                     .normalize();
             //create directories
-            Files.createDirectories(outputPath);
-            return outputPath;
+            Files.createDirectories(outputPath.getParent());
+            //every batch gets a directory of its own, batches started within the same second
+            //get a sequence number ('20240120_153045_1') instead of overwriting each other's output
+            for (int sequence = 1; ; sequence++) {
+                try {
+                    return Files.createDirectory(outputPath);
+                } catch (FileAlreadyExistsException e) {
+                    if (!Files.isDirectory(outputPath)) throw e;
+                }
+                outputPath = outputPath.resolveSibling(
+                        timestamp.format(DateTimeFormatter.ofPattern(DATE_FORMAT_PATTERN)) + "_" + sequence);
+            }
         } catch (IOException e) {
             throw new HotelFileSystemException("Failed to create output directory", e);
         }
@@ -56,7 +94,7 @@ public class FileSystemService {
 
     public void saveJsonResult(byte[] data, Path outputPath) {
         try {
-            Path filePath = outputPath.resolve("hotels.json");
+            Path filePath = outputPath.resolve(HotelJsonWriter.RESULT_FILE_NAME);
             Files.write(filePath, data);
             log.info("Saved result to: {}", filePath);
         } catch (IOException e) {
@@ -64,51 +102,212 @@ public class FileSystemService {
         }
     }
 
+    //hotels sorted by id, with an '.index.json' sidecar holding the byte range of every hotel,
+    //split into shards listed in 'manifest.json' when app.output.shards > 1
+    public void saveHotels(Map<String, HotelData> hotels, Path outputPath) {
+        Path filePath = write(() -> hotelJsonWriter.writeOutput(new TreeSet<>(hotels.keySet()),
+                hotelId -> hotelJsonWriter.encode(hotels.get(hotelId)), outputPath, appProperties.output().shards()));
+        log.info("Saved {} hotels to: {}", hotels.size(), filePath);
+    }
+
+    //null when merged hotels are kept as parsed trees
+    public CompactHotelStore newCompactStore() {
+        AppProperties.CompactHotels properties = appProperties.compactHotels();
+        if (!properties.enabled()) return null;
+        return new CompactHotelStore(hotelJsonWriter, properties.storage(), properties.chunkBytes());
+    }
+
+    //same documents as saveHotels(Map, Path), fragments are streamed from the encoded hotels
+    public void saveCompactHotels(CompactHotelStore hotels, Path outputPath) {
+        Path filePath = write(() -> hotelJsonWriter.writeOutput(hotels.hotelIds(), hotels::fragment, outputPath,
+                appProperties.output().shards()));
+        log.info("Saved {} hotels ({} encoded bytes) to: {}", hotels.size(), hotels.storedBytes(), filePath);
+    }
+
+    //documents are written on the write stage, so concurrent batches don't serialize more outputs at once than it allows
+    private Path write(Callable<Path> output) {
+        try {
+            return pipelineService.write().submit(output).join();
+        } catch (CompletionException e) {
+            throw new HotelFileSystemException("Failed to save JSON result", e.getCause());
+        }
+    }
+
+    //hotels documents written to the output directory, without index sidecars and manifest
+    public long outputBytes(Path outputPath) {
+        try (Stream<Path> files = Files.list(outputPath)) {
+            long bytes = 0;
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(HOTELS_FILE_PREFIX) && name.endsWith(".json") && !name.endsWith(".index.json")) {
+                    bytes += Files.size(file);
+                }
+            }
+            return bytes;
+        } catch (IOException e) {
+            log.warn("Failed to measure output in {}: {}", outputPath, e.getMessage());
+            return 0;
+        }
+    }
+
+    public Optional<Path> findManifest(Path outputPath) {
+        Path manifestFile = outputPath.resolve(HotelJsonWriter.MANIFEST_FILE_NAME);
+        return Files.exists(manifestFile) ? Optional.of(manifestFile) : Optional.empty();
+    }
+
+    public Instant downloadDeadline() {
+        return Instant.now().plusSeconds(appProperties.images().downloadDeadlineSeconds());
+    }
+
     public CompletableFuture<Boolean> downloadImage(String url, String hotelId, Path imagesDir) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                log.debug("Starting download of image from URL: {}", url);
-
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .timeout(Duration.ofSeconds(30))
-                        .header("User-Agent", "Mozilla/5.0")
-                        .GET()
-                        .build();
-
-                HttpResponse<byte[]> response = httpClient.send(request,
-                        HttpResponse.BodyHandlers.ofByteArray());
-
-                if (response.statusCode() == 200) {
-                    try (InputStream is = new ByteArrayInputStream(response.body())) {
-                        //validate image
-                        BufferedImage image = ImageIO.read(is);
-                        if (image == null) {
-                            log.warn("Downloaded file is not a valid image: {}", url);
-                            return false;
-                        }
-
-                        if (image.getWidth() == 0 || image.getHeight() == 0) {
-                            log.warn("Image has invalid dimensions: {}", url);
-                            return false;
-                        }
-
-                        Path imagePath = imagesDir.resolve(generateImageFilename(hotelId, url));
-                        Files.createDirectories(imagePath.getParent());
-                        Files.write(imagePath, response.body());
-                        log.debug("Successfully downloaded and verified image from {} to {}", url, imagePath);
-                        return true;
+        return downloadImage(url, hotelId, imagesDir, null, new BatchMetrics())
+                .thenApply(DownloadOutcome.DOWNLOADED::equals);
+    }
+
+    //deadline - null for none; the request timeout never reaches past it,
+    //and cancelling the returned future aborts the HTTP exchange still in flight
+    public CompletableFuture<DownloadOutcome> downloadImage(String url, String hotelId, Path imagesDir, Instant deadline,
+                                                           BatchMetrics metrics) {
+        if (deadline != null && !Instant.now().isBefore(deadline)) {
+            return CompletableFuture.completedFuture(DownloadOutcome.CANCELLED);
+        }
+
+        HttpRequest.Builder request;
+        try {
+            log.debug("Starting download of image from URL: {}", url);
+            request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("User-Agent", "Mozilla/5.0")
+                    .GET();
+        } catch (IllegalArgumentException e) {
+            log.error("Error processing image from {}: {}", url, e.getMessage());
+            return CompletableFuture.completedFuture(DownloadOutcome.FAILED);
+        }
+
+        //the submitting thread waits here while the fetch stage is full;
+        //the timeout is taken when the exchange starts, time spent in the queue counts against the deadline.
+        //Every stage hands its result over to the next one while still holding its slot
+        //nanoTime of the exchange start, 0 - not started, -1 - the download finished or was cancelled before it started
+        AtomicLong exchangeStart = new AtomicLong();
+        CompletableFuture<Boolean> processed = pipelineService.fetch().submitAsync(() -> {
+            Duration timeout = requestTimeout(deadline);
+            if (!timeout.isPositive()) {
+                return CompletableFuture.failedFuture(new HttpTimeoutException("Batch deadline passed in the queue"));
+            }
+            if (!exchangeStart.compareAndSet(0, System.nanoTime())) {
+                return CompletableFuture.failedFuture(new CancellationException("Download of " + url + " cancelled"));
+            }
+            metrics.downloadStarted();
+            return httpClient.sendAsync(request.copy().timeout(timeout).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+        }, response -> pipelineService.validate().submit(
+                () -> storeImage(response, url, hotelId, imagesDir, metrics),
+                image -> derive(image, metrics)));
+
+        CompletableFuture<DownloadOutcome> outcome = processed
+                .thenApply(success -> success ? DownloadOutcome.DOWNLOADED : DownloadOutcome.FAILED)
+                .exceptionally(e -> {
+                    //the request timeout was cut to the deadline, so timing out then means the batch gave up on it
+                    if (deadline != null && !Instant.now().isBefore(deadline)) {
+                        log.debug("Download of {} stopped at the batch deadline", url);
+                        return DownloadOutcome.CANCELLED;
                     }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.error("Error processing image from {}: {}", url, cause.getMessage());
+                    return DownloadOutcome.FAILED;
+                })
+                //recorded before the outcome completes, whoever waits for it sees the metrics updated
+                .thenApply(result -> downloadEnded(exchangeStart, result, metrics));
+        outcome.whenComplete((result, e) -> {
+            if (outcome.isCancelled()) {
+                processed.cancel(true);
+                downloadEnded(exchangeStart, DownloadOutcome.CANCELLED, metrics);
+            }
+        });
+        return outcome;
+    }
+
+    private static DownloadOutcome downloadEnded(AtomicLong exchangeStart, DownloadOutcome outcome,
+                                                 BatchMetrics metrics) {
+        long started = exchangeStart.getAndSet(-1);
+        if (started <= 0) return outcome;
+        if (outcome == DownloadOutcome.CANCELLED) {
+            metrics.downloadCancelled();
+        } else {
+            metrics.downloadFinished(System.nanoTime() - started);
+        }
+        return outcome;
+    }
+
+    private static Duration requestTimeout(Instant deadline) {
+        if (deadline == null) return IMAGE_REQUEST_TIMEOUT;
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.compareTo(IMAGE_REQUEST_TIMEOUT) < 0 ? remaining : IMAGE_REQUEST_TIMEOUT;
+    }
+
+    //true once the image is stored; derivatives are best effort
+    private CompletableFuture<Boolean> derive(StoredImage image, BatchMetrics metrics) {
+        if (image == null || !imageDerivativeService.isEnabled()) {
+            return CompletableFuture.completedFuture(image != null);
+        }
+        //reuse the image decoded during validation instead of decoding it again downstream
+        CompletableFuture<List<Path>> derivatives = imageDerivativeService.createDerivatives(image.image(), image.path());
+        metrics.derivativeQueueDepth(imageDerivativeService.queuedTasks());
+        return derivatives.handle((paths, e) -> {
+            if (e != null) {
+                log.warn("Failed to create derivatives of {}: {}", image.path(), e.getMessage());
+            }
+            return true;
+        });
+    }
+
+    private StoredImage storeImage(HttpResponse<byte[]> response, String url, String hotelId, Path imagesDir,
+                                   BatchMetrics metrics) {
+        try {
+            if (response.statusCode() != 200) {
+                log.warn("Failed to download image from {}, status code: {}",
+                        url, response.statusCode());
+                return null;
+            }
+            try (InputStream is = new ByteArrayInputStream(response.body())) {
+                //validate image
+                long validationStart = System.nanoTime();
+                BufferedImage image = ImageIO.read(is);
+                metrics.imageValidated(System.nanoTime() - validationStart);
+                if (image == null) {
+                    log.warn("Downloaded file is not a valid image: {}", url);
+                    return null;
+                }
+
+                if (image.getWidth() == 0 || image.getHeight() == 0) {
+                    log.warn("Image has invalid dimensions: {}", url);
+                    return null;
+                }
+
+                Path imagePath = imagesDir.resolve(generateImageFilename(hotelId, url));
+                Files.createDirectories(imagePath.getParent());
+
+                //near-duplicate of an already stored image, possibly of an earlier run: linked into this run's
+                //images instead of storing another copy, so the run's output still holds every image it references;
+                //a new image is registered in the same step, its write finishing before anyone links to it
+                if (!imageDedupService.isEnabled()) {
+                    Files.write(imagePath, response.body());
                 } else {
-                    log.warn("Failed to download image from {}, status code: {}",
-                            url, response.statusCode());
-                    return false;
+                    Optional<Path> storedPath = imageDedupService.findOrRegister(ImageDedupService.dHash(image),
+                            hotelId, imagePath, () -> Files.write(imagePath, response.body()));
+                    if (storedPath.isPresent()) {
+                        FileLinks.linkOrCopy(storedPath.get(), imagePath);
+                        log.debug("Image from {} is a duplicate of {}, linked as {}", url, storedPath.get(), imagePath);
+                        return new StoredImage(image, imagePath);
+                    }
                 }
-            } catch (Exception e) {
-                log.error("Error processing image from {}: {}", url, e.getMessage());
-                return false;
+                log.debug("Successfully downloaded and verified image from {} to {}", url, imagePath);
+                return new StoredImage(image, imagePath);
             }
-        });
+        } catch (Exception e) {
+            log.error("Error processing image from {}: {}", url, e.getMessage());
+            return null;
+        }
     }
 
     private String generateImageFilename(String hotelId, String url) {
@@ -125,4 +324,6 @@ public class FileSystemService {
             return "jpg";
         }
     }
+
+    private record StoredImage(BufferedImage image, Path path) {}
 }
@@ -1,20 +1,24 @@
 package com.freshcells.converter.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.enums.DownloadOutcome;
 import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.enums.ProgressEventType;
 import com.freshcells.converter.exceptions.HotelFileProcessingException;
 import com.freshcells.converter.model.HotelData;
 import com.freshcells.converter.model.ProcessingResult;
+import com.freshcells.converter.model.RawJson;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 @Slf4j
@@ -23,16 +27,18 @@ import java.util.regex.Pattern;
 public class HotelConverterService {
     private final FileProcessingService fileProcessingService;
     private final FileSystemService fileSystemService;
-    private final ObjectMapper objectMapper;
+    private final HotelStateStore hotelStateStore;
+    private final ImageDedupService imageDedupService;
+    private final BatchProgressService batchProgressService;
 
-    private static final Pattern IMAGE_URL_PATTERN =
+    static final Pattern IMAGE_URL_PATTERN =
             Pattern.compile(".*\\.(jpg|jpeg|png|gif)$", Pattern.CASE_INSENSITIVE);
-    private static final String IMAGE_TAG_NAME = "image";
+    static final String IMAGE_TAG_NAME = "image";
     private static final String URL_TAG_NAME = "url";
     private static final String IMAGES_FOLDER_NAME = "images";
-    private static final String RESULT_FILE_NAME = "hotels.json";
+    private static final String RESULT_FILE_NAME = HotelJsonWriter.RESULT_FILE_NAME;
 
-    private Set<String> extractAllImageUrls(Object obj, Set<String> urls) {
+    static Set<String> extractAllImageUrls(Object obj, Set<String> urls) {
         if (obj instanceof Map<?,?> map) {
             if (map.containsKey(IMAGE_TAG_NAME) && map.get(IMAGE_TAG_NAME) instanceof List<?> images) {
                 images.forEach(img -> {
@@ -48,6 +54,8 @@ public class HotelConverterService {
             map.values().forEach(value -> extractAllImageUrls(value, urls));
         } else if (obj instanceof Collection<?> collection) {
             collection.forEach(item -> extractAllImageUrls(item, urls));
+        } else if (obj instanceof RawJson raw) {
+            urls.addAll(raw.imageUrls());
         } else if (obj instanceof String str && IMAGE_URL_PATTERN.matcher(str).matches()) {
             urls.add(str);
         }
@@ -55,64 +63,282 @@ public class HotelConverterService {
     }
 
     public ProcessingResult processFiles(List<MultipartFile> files) {
+        return processFiles(files, BatchProgressService.newBatchId());
+    }
+
+    public ProcessingResult processFiles(List<MultipartFile> files, String batchId) {
+        Batch batch = startBatch(batchId);
+        try {
+            //process files
+            for (MultipartFile file : files) {
+                String filename = file.getOriginalFilename();
+                if (filename == null) continue;
+
+                //skip source files that were already merged into the state store with the same content
+                if (batch.isIncremental() && batch.skipUnchanged(filename, ContentHash.sha256(readBytes(file)))) {
+                    continue;
+                }
+
+                long parseStart = System.nanoTime();
+                Map<String, Object> content = fileProcessingService.processFile(file);
+                batch.metrics().fileParsed(filename, file.getSize(), System.nanoTime() - parseStart);
+                batch.accept(filename, content);
+            }
+
+            return batch.finish(files.size());
+        } catch (RuntimeException e) {
+            batch.fail(e);
+            throw e;
+        }
+    }
+
+    //a batch takes parsed files one by one, so callers can feed it while the upload is still arriving;
+    //its steps are published as progress events under batchId
+    public Batch startBatch(String batchId) {
         LocalDateTime timestamp = LocalDateTime.now();
         Path outputPath = fileSystemService.getOutputPath(timestamp);
-        Path imagesDir = outputPath.resolve(IMAGES_FOLDER_NAME);
+        return new Batch(batchId, timestamp, outputPath, outputPath.resolve(IMAGES_FOLDER_NAME),
+                hotelStateStore.isEnabled());
+    }
+
+    //a batch whose hotels are handed back by finishHotels instead of written to an output of its own,
+    //its images go to imagesDir; the cluster mode builds its partial outputs this way
+    public Batch startFragmentBatch(String batchId, Path imagesDir) {
+        return new Batch(batchId, LocalDateTime.now(), null, imagesDir, false);
+    }
+
+    public class Batch {
+        private final String batchId;
+        private final LocalDateTime timestamp;
+        //null - a fragment batch
+        private final Path outputPath;
+        private final Path imagesDir;
+        private final boolean incremental;
+        private final Map<String, HotelData> hotels = new HashMap<>();
+        //parts received by an incremental batch, merged into the stored hotels by the state store at finish
+        private final Map<String, Map<FileType, Map<String, Object>>> changedParts = new HashMap<>();
+        //image urls an incremental batch queued per hotel
+        private final Map<String, Set<String>> queuedImages = new HashMap<>();
+        //null - hotels are kept as parsed trees in 'hotels'
+        private final CompactHotelStore compactHotels;
+        private final Instant downloadDeadline;
+        private final List<CompletableFuture<DownloadOutcome>> imageDownloads = new ArrayList<>();
+        private final Map<String, String> changedSources = new HashMap<>();
+        private final BatchMetrics metrics = new BatchMetrics();
 
-        Map<String, HotelData> hotels = new HashMap<>();
-        List<CompletableFuture<Boolean>> imageDownloads = new ArrayList<>();
+        private Batch(String batchId, LocalDateTime timestamp, Path outputPath, Path imagesDir, boolean incremental) {
+            this.batchId = batchId;
+            this.timestamp = timestamp;
+            this.outputPath = outputPath;
+            this.imagesDir = imagesDir;
+            this.incremental = incremental;
+            //the state store merges the received parts into the hotels it holds, a fragment batch hands them back
+            this.compactHotels = incremental || outputPath == null ? null : fileSystemService.newCompactStore();
+            this.downloadDeadline = fileSystemService.downloadDeadline();
+            progress(ProgressEventType.STARTED,
+                    outputPath != null ? outputPath.getFileName().toString() : imagesDir.toString());
+        }
 
-        //process files
-        for (MultipartFile file : files) {
-            String filename = file.getOriginalFilename();
-            if (filename == null) continue;
+        public boolean isIncremental() {
+            return incremental;
+        }
 
+        public BatchMetrics metrics() {
+            return metrics;
+        }
+
+        //true if the file was already merged into the state store with the same content
+        public boolean skipUnchanged(String filename, String contentHash) {
+            if (!incremental) return false;
+            if (hotelStateStore.isUnchanged(filename, contentHash)) {
+                log.debug("Skipping unchanged file: {}", filename);
+                progress(ProgressEventType.FILE_SKIPPED, filename);
+                return true;
+            }
+            changedSources.put(filename, contentHash);
+            return false;
+        }
+
+        public void accept(String filename, Map<String, Object> content) {
             String hotelId = filename.split("-")[0];
-            Map<String, Object> content = fileProcessingService.processFile(file);
+            progress(ProgressEventType.FILE_PARSED, filename);
 
             //update hotel data
-            HotelData hotelData = hotels.computeIfAbsent(hotelId, k -> HotelData.empty());
-            hotels.put(hotelId, switch(FileType.fromFilename(filename)) {
-                case GIATA -> hotelData.withGiata(content);
-                case COA -> hotelData.withCoa(content);
-            });
+            FileType fileType = FileType.fromFilename(filename);
+            if (incremental) {
+                changedParts.computeIfAbsent(hotelId, k -> new EnumMap<>(FileType.class)).put(fileType, content);
+            } else if (compactHotels != null) {
+                try {
+                    compactHotels.put(hotelId, fileType, content);
+                } catch (IOException e) {
+                    throw new HotelFileProcessingException("Failed to encode hotel " + hotelId, e);
+                }
+            } else {
+                HotelData hotelData = hotels.computeIfAbsent(hotelId, k -> HotelData.empty());
+                hotels.put(hotelId, switch (fileType) {
+                    case GIATA -> hotelData.withGiata(content);
+                    case COA -> hotelData.withCoa(content);
+                });
+            }
+            progress(ProgressEventType.HOTEL_MERGED, hotelId);
 
             //extract and download images
             Set<String> imageUrls = extractAllImageUrls(content, new HashSet<>());
-            imageUrls.forEach(url ->
-                    imageDownloads.add(fileSystemService.downloadImage(url, hotelId, imagesDir))
-            );
+            if (incremental) {
+                queuedImages.computeIfAbsent(hotelId, k -> new HashSet<>()).addAll(imageUrls);
+            }
+            downloadImages(hotelId, imageUrls);
+        }
+
+        private void downloadImages(String hotelId, Set<String> imageUrls) {
+            metrics.imageUrlsFound(imageUrls);
+            imageUrls.forEach(url -> {
+                progress(ProgressEventType.IMAGE_QUEUED, url);
+                CompletableFuture<DownloadOutcome> download =
+                        fileSystemService.downloadImage(url, hotelId, imagesDir, downloadDeadline, metrics);
+                //kept apart from the callback, cancelling the download itself has to reach the HTTP exchange
+                imageDownloads.add(download);
+                download.whenComplete((outcome, error) -> {
+                    progress(switch (outcomeOf(download)) {
+                        case DOWNLOADED -> ProgressEventType.IMAGE_DOWNLOADED;
+                        case FAILED -> ProgressEventType.IMAGE_FAILED;
+                        case CANCELLED -> ProgressEventType.IMAGE_CANCELLED;
+                    }, url);
+                });
+            });
+        }
+
+        //a changed hotel's images are all stored by the run that changed it, including those of the stored part
+        //the batch did not receive; the stored part is read outside the merge lock, a part changed by a concurrent
+        //batch meanwhile brings its own images with that batch
+        private void downloadStoredPartImages() {
+            changedParts.forEach((hotelId, received) -> hotelStateStore.load(hotelId).ifPresent(stored -> {
+                Set<String> imageUrls = new HashSet<>();
+                if (!received.containsKey(FileType.GIATA)) extractAllImageUrls(stored.giata(), imageUrls);
+                if (!received.containsKey(FileType.COA)) extractAllImageUrls(stored.coa(), imageUrls);
+                imageUrls.removeAll(queuedImages.getOrDefault(hotelId, Set.of()));
+                downloadImages(hotelId, imageUrls);
+            }));
         }
 
+        public ProcessingResult finish(int processedFiles) {
+            try {
+                if (incremental) {
+                    downloadStoredPartImages();
+                }
+                Map<DownloadOutcome, Integer> outcomes = completeDownloads();
+
+                //save result
+                long serializationStart = System.nanoTime();
+                if (incremental) {
+                    hotelStateStore.merge(changedParts, changedSources, imagesDir);
+                    hotelStateStore.writeSnapshot(outputPath, imagesDir);
+                } else if (compactHotels != null) {
+                    fileSystemService.saveCompactHotels(compactHotels, outputPath);
+                } else {
+                    fileSystemService.saveHotels(hotels, outputPath);
+                }
+                metrics.serialized(System.nanoTime() - serializationStart, fileSystemService.outputBytes(outputPath));
+
+                Optional<Path> manifestFile = fileSystemService.findManifest(outputPath);
+                progress(ProgressEventType.JSON_WRITTEN,
+                        manifestFile.orElse(outputPath.resolve(RESULT_FILE_NAME)).toString());
+                progress(ProgressEventType.COMPLETED, null);
+                return new ProcessingResult(
+                        manifestFile.isPresent() ? null : outputPath.resolve(RESULT_FILE_NAME),
+                        manifestFile.orElse(null),
+                        imagesDir,
+                        timestamp,
+                        processedFiles,
+                        outcomes.getOrDefault(DownloadOutcome.DOWNLOADED, 0),
+                        outcomes.getOrDefault(DownloadOutcome.FAILED, 0),
+                        outcomes.getOrDefault(DownloadOutcome.CANCELLED, 0),
+                        metrics.snapshot(hotelCount())
+                );
+
+            } catch (Exception e) {
+                throw new HotelFileProcessingException("Failed to complete processing", e);
+            } finally {
+                closeCompactHotels();
+            }
+        }
+
+        //ends a fragment batch once its images are in
+        public Map<String, HotelData> finishHotels() {
+            try {
+                completeDownloads();
+                progress(ProgressEventType.COMPLETED, null);
+                return hotels;
+            } catch (Exception e) {
+                throw new HotelFileProcessingException("Failed to complete processing", e);
+            }
+        }
+
+        private Map<DownloadOutcome, Integer> completeDownloads() throws InterruptedException, ExecutionException {
+            awaitDownloads();
+            Map<DownloadOutcome, Integer> outcomes = new EnumMap<>(DownloadOutcome.class);
+            imageDownloads.forEach(download -> outcomes.merge(outcomeOf(download), 1, Integer::sum));
+            imageDedupService.persist();
+            return outcomes;
+        }
+
+        private int hotelCount() {
+            if (incremental) return changedParts.size();
+            return compactHotels != null ? compactHotels.size() : hotels.size();
+        }
+
+        //direct and mapped chunks are released with the store, not when the batch becomes garbage
+        private void closeCompactHotels() {
+            if (compactHotels == null) return;
+            try {
+                compactHotels.close();
+            } catch (IOException e) {
+                log.warn("Failed to release encoded hotels of batch {}: {}", batchId, e.getMessage());
+            }
+        }
+
+        //a slow image host costs the images it didn't deliver in time, not the whole batch
+        private void awaitDownloads() throws InterruptedException, ExecutionException {
+            CompletableFuture<Void> all = CompletableFuture.allOf(imageDownloads.toArray(CompletableFuture[]::new));
+            if (downloadDeadline == null) {
+                all.get();
+                return;
+            }
+            try {
+                all.get(Math.max(0, Duration.between(Instant.now(), downloadDeadline).toMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                long pending = imageDownloads.stream().filter(download -> !download.isDone()).count();
+                log.warn("Image download deadline of batch {} passed, cancelling {} pending downloads", batchId, pending);
+                imageDownloads.forEach(download -> download.cancel(true));
+            }
+        }
+
+        public void fail(Exception e) {
+            //nobody will collect the images of a failed batch
+            imageDownloads.forEach(download -> download.cancel(true));
+            closeCompactHotels();
+            progress(ProgressEventType.FAILED, e.getMessage());
+        }
+
+        private void progress(ProgressEventType type, String detail) {
+            batchProgressService.publish(batchId, type, detail);
+        }
+    }
+
+    private static DownloadOutcome outcomeOf(CompletableFuture<DownloadOutcome> download) {
+        if (download.isCancelled()) return DownloadOutcome.CANCELLED;
         try {
-            //wait for all downloads to complete and count successful ones
-            CompletableFuture.allOf(imageDownloads.toArray(CompletableFuture[]::new))
-                    .get(5, TimeUnit.MINUTES);
-
-            long successfulDownloads = imageDownloads.stream()
-                    .map(future -> {
-                        try {
-                            return future.get();
-                        } catch (Exception e) {
-                            return false;
-                        }
-                    })
-                    .filter(success -> success)
-                    .count();
-
-            //save result
-            fileSystemService.saveJsonResult(objectMapper.writeValueAsBytes(hotels), outputPath);
-
-            return new ProcessingResult(
-                    outputPath.resolve(RESULT_FILE_NAME),
-                    imagesDir,
-                    timestamp,
-                    files.size(),
-                    (int) successfulDownloads
-            );
-
-        } catch (Exception e) {
-            throw new HotelFileProcessingException("Failed to complete processing", e);
+            return download.getNow(DownloadOutcome.CANCELLED);
+        } catch (CompletionException e) {
+            return DownloadOutcome.FAILED;
+        }
+    }
+
+    private byte[] readBytes(MultipartFile file) {
+        try {
+            return file.getBytes();
+        } catch (IOException e) {
+            throw new HotelFileProcessingException("Failed to read file: " + file.getOriginalFilename(), e);
         }
     }
 }
@@ -0,0 +1,252 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.model.HotelIndexEntry;
+import com.freshcells.converter.model.OutputManifest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.IntStream;
+
+@Component
+public class HotelJsonWriter {
+    private final ObjectMapper objectMapper;
+
+    public static final String RESULT_FILE_NAME = "hotels.json";
+    public static final String MANIFEST_FILE_NAME = "manifest.json";
+    private static final String SHARD_FILE_PATTERN = "hotels-%05d.json";
+    private static final String PARTITIONING = "floorMod(String.hashCode(hotelId), shardCount)";
+    private static final String PLACEHOLDER_FIELD = "_";
+    private static final String JSON_EXTENSION = ".json";
+    private static final String INDEX_SUFFIX = ".index.json";
+    //hotels whose fragments are encoded together and held in memory until written
+    private static final int PARALLEL_WINDOW = 256;
+    private static final int MAX_POOLED_BUFFER_BYTES = 1024 * 1024;
+    //encode buffers are reused by the fork-join workers instead of growing a new one for every hotel
+    private static final ThreadLocal<ByteArrayOutputStream> ENCODE_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(8192));
+
+    @FunctionalInterface
+    public interface FragmentSource {
+        byte[] fragment(String hotelId) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ValueWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    public record DocumentInfo(
+            Map<String, HotelIndexEntry> index,
+            long bytes,
+            String sha256
+    ) {}
+
+    public HotelJsonWriter(@Qualifier("jsonMapper") ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    //index sidecar of a hotels document: 'hotels.json' -> 'hotels.index.json'
+    public static Path indexPath(Path jsonFile) {
+        String name = jsonFile.getFileName().toString();
+        String base = name.endsWith(JSON_EXTENSION) ? name.substring(0, name.length() - JSON_EXTENSION.length()) : name;
+        return jsonFile.resolveSibling(base + INDEX_SUFFIX);
+    }
+
+    public static int shardOf(String hotelId, int shardCount) {
+        return Math.floorMod(hotelId.hashCode(), shardCount);
+    }
+
+    public static String shardFileName(int shard) {
+        return String.format(SHARD_FILE_PATTERN, shard);
+    }
+
+    //fragment - pretty-printed value of one hotel exactly as it appears inside hotels.json,
+    //so fragments can be cached or produced independently and spliced without serializing the whole map again
+    public byte[] encode(Object value) throws IOException {
+        return encode(generator -> generator.writeObject(value));
+    }
+
+    //fragment of a value written token by token, e.g. copied from another format
+    public byte[] encode(ValueWriter value) throws IOException {
+        ByteArrayOutputStream out = ENCODE_BUFFER.get();
+        out.reset();
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            //serialize as a field of an object so the indentation matches the position inside the document
+            generator.writeStartObject();
+            generator.writeFieldName(PLACEHOLDER_FIELD);
+            generator.flush();
+            int start = out.size();
+            value.write(generator);
+            generator.flush();
+
+            byte[] bytes = out.toByteArray();
+            //skip the field/value separator written by the pretty printer
+            while (start < bytes.length && (bytes[start] == ' ' || bytes[start] == ':')) {
+                start++;
+            }
+            return Arrays.copyOfRange(bytes, start, bytes.length);
+        } finally {
+            //an unusually large hotel shouldn't pin its buffer to the thread
+            if (out.size() > MAX_POOLED_BUFFER_BYTES) {
+                ENCODE_BUFFER.remove();
+            }
+        }
+    }
+
+    //writes the document and returns byte offset and length of every hotel value in it
+    public Map<String, HotelIndexEntry> write(Collection<String> hotelIds, FragmentSource source, OutputStream target)
+            throws IOException {
+        return write(hotelIds, source, chunk -> {
+            for (ByteBuffer buffer : chunk) {
+                target.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+        });
+    }
+
+    //fragments of a window of hotels are encoded in parallel, separators and field names come from a generator
+    //writing the same document skeleton as the sequential path, so the bytes don't depend on the thread count
+    private Map<String, HotelIndexEntry> write(Collection<String> hotelIds, FragmentSource source, ChunkSink sink)
+            throws IOException {
+        Map<String, HotelIndexEntry> index = new LinkedHashMap<>();
+        List<String> ids = List.copyOf(hotelIds);
+        ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        JsonGenerator generator = objectMapper.createGenerator(skeleton);
+        generator.writeStartObject();
+        long offset = 0;
+        for (int from = 0; from < ids.size(); from += PARALLEL_WINDOW) {
+            List<String> window = ids.subList(from, Math.min(from + PARALLEL_WINDOW, ids.size()));
+            List<byte[]> fragments = encodeParallel(window, source);
+
+            ByteBuffer[] chunk = new ByteBuffer[window.size() * 2];
+            for (int i = 0; i < window.size(); i++) {
+                generator.writeFieldName(window.get(i));
+                //empty raw value lets the generator emit the separator, the fragment follows it
+                generator.writeRawValue("");
+                generator.flush();
+                byte[] prefix = skeleton.toByteArray();
+                skeleton.reset();
+                byte[] fragment = fragments.get(i);
+                offset += prefix.length;
+                index.put(window.get(i), new HotelIndexEntry(offset, fragment.length));
+                offset += fragment.length;
+                chunk[2 * i] = ByteBuffer.wrap(prefix);
+                chunk[2 * i + 1] = ByteBuffer.wrap(fragment);
+            }
+            sink.write(chunk);
+        }
+        generator.writeEndObject();
+        generator.close();
+        sink.write(new ByteBuffer[]{ByteBuffer.wrap(skeleton.toByteArray())});
+        return index;
+    }
+
+    private List<byte[]> encodeParallel(List<String> hotelIds, FragmentSource source) throws IOException {
+        try {
+            //ordered parallel stream: fork-join splits the window, results keep the input order
+            return hotelIds.parallelStream()
+                    .map(hotelId -> {
+                        try {
+                            return source.fragment(hotelId);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //writes the document together with its offset index, both replaced atomically
+    public DocumentInfo writeFile(Collection<String> hotelIds, FragmentSource source, Path jsonFile)
+            throws IOException {
+        Path tmp = jsonFile.resolveSibling(jsonFile.getFileName() + ".tmp");
+        MessageDigest digest = ContentHash.newDigest();
+        Map<String, HotelIndexEntry> index;
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            index = write(hotelIds, source, chunk -> {
+                long remaining = 0;
+                for (ByteBuffer buffer : chunk) {
+                    digest.update(buffer.duplicate());
+                    remaining += buffer.remaining();
+                }
+                //gathering write: one system call for a whole window of separators and fragments
+                while (remaining > 0) {
+                    remaining -= channel.write(chunk);
+                }
+            });
+        }
+        Path indexFile = indexPath(jsonFile);
+        Path indexTmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        objectMapper.writeValue(indexTmp.toFile(), index);
+        Files.move(tmp, jsonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new DocumentInfo(index, Files.size(jsonFile), HexFormat.of().formatHex(digest.digest()));
+    }
+
+    //single 'hotels.json' or, with several shards, 'hotels-<n>.json' files written in parallel plus 'manifest.json';
+    //returns the file consumers should open first
+    public Path writeOutput(SortedSet<String> hotelIds, FragmentSource source, Path outputDir, int shardCount)
+            throws IOException {
+        if (shardCount <= 1) {
+            Path jsonFile = outputDir.resolve(RESULT_FILE_NAME);
+            writeFile(hotelIds, source, jsonFile);
+            return jsonFile;
+        }
+
+        List<SortedSet<String>> partitions = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            partitions.add(new TreeSet<>());
+        }
+        hotelIds.forEach(hotelId -> partitions.get(shardOf(hotelId, shardCount)).add(hotelId));
+
+        //fragments are encoded inside the shard tasks, so serialization runs in parallel as well
+        List<OutputManifest.Shard> shards;
+        try {
+            shards = IntStream.range(0, shardCount)
+                    .parallel()
+                    .mapToObj(shard -> writeShard(shard, partitions.get(shard), source, outputDir))
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Path manifestFile = outputDir.resolve(MANIFEST_FILE_NAME);
+        objectMapper.writeValue(manifestFile.toFile(),
+                new OutputManifest(shardCount, hotelIds.size(), PARTITIONING, shards));
+        return manifestFile;
+    }
+
+    private OutputManifest.Shard writeShard(int shard, SortedSet<String> hotelIds, FragmentSource source, Path outputDir) {
+        try {
+            Path shardFile = outputDir.resolve(shardFileName(shard));
+            DocumentInfo info = writeFile(hotelIds, source, shardFile);
+            return new OutputManifest.Shard(
+                    shardFile.getFileName().toString(),
+                    indexPath(shardFile).getFileName().toString(),
+                    hotelIds.size(),
+                    info.bytes(),
+                    info.sha256()
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkSink {
+        void write(ByteBuffer[] chunk) throws IOException;
+    }
+}
@@ -0,0 +1,124 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.exceptions.HotelNotFoundException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.HotelIndexEntry;
+import com.freshcells.converter.model.OutputManifest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+@Slf4j
+@Service
+public class HotelLookupService {
+    private final AppProperties appProperties;
+    private final ObjectMapper objectMapper;
+
+    //most recently used runs stay mapped, older ones are dropped and unmapped by GC
+    private final Map<String, List<RunDocument>> documents = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<RunDocument>> eldest) {
+                    return size() > MAX_CACHED_RUNS;
+                }
+            });
+
+    //run is the name of a timestamped output directory, see FileSystemService.getOutputPath
+    private static final Pattern RUN_PATTERN = Pattern.compile("\\d{8}_\\d{6}(_\\d+)?");
+    private static final int MAX_CACHED_RUNS = 16;
+
+    public HotelLookupService(AppProperties appProperties, @Qualifier("jsonMapper") ObjectMapper objectMapper) {
+        this.appProperties = appProperties;
+        this.objectMapper = objectMapper;
+    }
+
+    public byte[] getHotel(String run, String hotelId) {
+        List<RunDocument> shards = documents.get(run);
+        if (shards == null) {
+            shards = openRun(run);
+            documents.put(run, shards);
+        }
+
+        RunDocument document = shards.size() == 1
+                ? shards.get(0)
+                : shards.get(HotelJsonWriter.shardOf(hotelId, shards.size()));
+        HotelIndexEntry entry = document.index().get(hotelId);
+        if (entry == null) {
+            throw new HotelNotFoundException("Hotel not found: " + hotelId);
+        }
+        return document.read(entry);
+    }
+
+    private List<RunDocument> openRun(String run) {
+        if (!RUN_PATTERN.matcher(run).matches()) {
+            throw new HotelValidationException("Invalid run: " + run);
+        }
+        Path runDir = Path.of(appProperties.outputDir()).resolve(run);
+        Path manifestFile = runDir.resolve(HotelJsonWriter.MANIFEST_FILE_NAME);
+        if (!Files.exists(manifestFile)) {
+            return List.of(openDocument(run, runDir.resolve(HotelJsonWriter.RESULT_FILE_NAME)));
+        }
+
+        try {
+            OutputManifest manifest = objectMapper.readValue(manifestFile.toFile(), OutputManifest.class);
+            return manifest.shards().stream()
+                    .map(shard -> openDocument(run, runDir.resolve(shard.file())))
+                    .toList();
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to read manifest of run " + run, e);
+        }
+    }
+
+    private RunDocument openDocument(String run, Path jsonFile) {
+        Path indexFile = HotelJsonWriter.indexPath(jsonFile);
+        if (!Files.exists(jsonFile) || !Files.exists(indexFile)) {
+            throw new HotelNotFoundException("Run not found: " + run);
+        }
+
+        try (FileChannel channel = FileChannel.open(jsonFile, StandardOpenOption.READ)) {
+            Map<String, HotelIndexEntry> index = objectMapper.readValue(
+                    indexFile.toFile(), new TypeReference<Map<String, HotelIndexEntry>>() {});
+            //a single mapping is limited to 2GB, larger documents are mapped per lookup
+            ByteBuffer mapped = channel.size() <= Integer.MAX_VALUE
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    : null;
+            log.debug("Opened {} of run {} with {} indexed hotels", jsonFile.getFileName(), run, index.size());
+            return new RunDocument(jsonFile, index, mapped);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to open hotels of run " + run, e);
+        }
+    }
+
+    private record RunDocument(Path jsonFile, Map<String, HotelIndexEntry> index, ByteBuffer mapped) {
+
+        byte[] read(HotelIndexEntry entry) {
+            byte[] hotel = new byte[entry.length()];
+            if (mapped != null) {
+                mapped.get((int) entry.offset(), hotel);
+                return hotel;
+            }
+            try (FileChannel channel = FileChannel.open(jsonFile, StandardOpenOption.READ)) {
+                channel.map(FileChannel.MapMode.READ_ONLY, entry.offset(), entry.length()).get(hotel);
+                return hotel;
+            } catch (IOException e) {
+                throw new HotelFileSystemException("Failed to read hotel from " + jsonFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.HotelData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+public class HotelStateStore {
+    private final AppProperties appProperties;
+    private final ObjectMapper objectMapper;
+    private final HotelJsonWriter hotelJsonWriter;
+
+    //source file name -> content hash of the last version merged into the store
+    private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+    private final NavigableSet<String> hotelIds = new ConcurrentSkipListSet<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean loaded;
+
+    private static final Pattern HOTEL_ID_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+    //<hotelId>_<uuid>.<ext> as stored by FileSystemService, derivatives add _<size>
+    private static final Pattern IMAGE_FILE_PATTERN = Pattern.compile(
+            "([A-Za-z0-9_]+)_\\p{XDigit}{8}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{12}(_\\d+)?\\.[^.]+");
+    private static final String HOTELS_FOLDER_NAME = "hotels";
+    private static final String IMAGES_FOLDER_NAME = "images";
+    private static final String SOURCES_FILE_NAME = "sources.json";
+    private static final String FRAGMENT_EXTENSION = ".json";
+    private static final String STATE_FOLDER_NAME = "state";
+
+    public HotelStateStore(AppProperties appProperties,
+                           @Qualifier("jsonMapper") ObjectMapper objectMapper,
+                           HotelJsonWriter hotelJsonWriter) {
+        this.appProperties = appProperties;
+        this.objectMapper = objectMapper;
+        this.hotelJsonWriter = hotelJsonWriter;
+    }
+
+    public boolean isEnabled() {
+        return appProperties.stateStore().enabled();
+    }
+
+    public boolean isUnchanged(String sourceFile, String contentHash) {
+        ensureLoaded();
+        return contentHash.equals(sourceHashes.get(sourceFile));
+    }
+
+    public Optional<HotelData> load(String hotelId) {
+        ensureLoaded();
+        Path fragment = fragmentPath(hotelId);
+        if (!hotelIds.contains(hotelId) || !Files.exists(fragment)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(fragment.toFile(), HotelData.class));
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to read stored hotel " + hotelId, e);
+        }
+    }
+
+    //stores changed hotels and the hashes of the source files they were built from
+    public void update(Map<String, HotelData> changedHotels, Map<String, String> changedSources) {
+        ensureLoaded();
+        writeLock.lock();
+        try {
+            Files.createDirectories(hotelsDir());
+            for (Map.Entry<String, HotelData> entry : changedHotels.entrySet()) {
+                writeAtomically(fragmentPath(entry.getKey()), hotelJsonWriter.encode(entry.getValue()));
+                hotelIds.add(entry.getKey());
+            }
+            sourceHashes.putAll(changedSources);
+            writeAtomically(storeDir().resolve(SOURCES_FILE_NAME),
+                    objectMapper.writeValueAsBytes(new TreeMap<>(sourceHashes)));
+            log.info("Updated {} hotels in state store ({} total)", changedHotels.size(), hotelIds.size());
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to update hotel state store", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //applies the GIATA and COAH parts a batch received to the stored hotels; load, merge and write happen under
+    //one lock, so concurrent batches touching the same hotel don't overwrite each other's parts. The images the batch
+    //stored in imagesDir for a changed hotel replace the ones kept for it
+    public void merge(Map<String, Map<FileType, Map<String, Object>>> changedParts, Map<String, String> changedSources,
+                      Path imagesDir) {
+        ensureLoaded();
+        writeLock.lock();
+        try {
+            Map<String, HotelData> changedHotels = new HashMap<>();
+            for (Map.Entry<String, Map<FileType, Map<String, Object>>> entry : changedParts.entrySet()) {
+                HotelData hotel = load(entry.getKey()).orElseGet(HotelData::empty);
+                for (Map.Entry<FileType, Map<String, Object>> part : entry.getValue().entrySet()) {
+                    hotel = switch (part.getKey()) {
+                        case GIATA -> hotel.withGiata(part.getValue());
+                        case COA -> hotel.withCoa(part.getValue());
+                    };
+                }
+                changedHotels.put(entry.getKey(), hotel);
+            }
+            update(changedHotels, changedSources);
+            keepImages(changedHotels.keySet(), imagesDir);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to keep images of changed hotels", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //consolidated document spliced from stored fragments, unchanged hotels are not serialized again; their kept images
+    //are linked into imagesDir, so the run holds the images of every hotel in its output
+    public void writeSnapshot(Path outputPath, Path imagesDir) {
+        ensureLoaded();
+        writeLock.lock();
+        try {
+            Path target = hotelJsonWriter.writeOutput(hotelIds, hotelId -> Files.readAllBytes(fragmentPath(hotelId)),
+                    outputPath, appProperties.output().shards());
+            int linked = linkKeptImages(imagesDir);
+            log.info("Saved snapshot of {} hotels to: {}, linked {} images of earlier runs", hotelIds.size(), target,
+                    linked);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to write hotels snapshot", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        ensureLoaded();
+        return hotelIds.size();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        writeLock.lock();
+        try {
+            if (loaded) return;
+            Path sources = storeDir().resolve(SOURCES_FILE_NAME);
+            if (Files.exists(sources)) {
+                sourceHashes.putAll(objectMapper.readValue(sources.toFile(), new TypeReference<Map<String, String>>() {}));
+            }
+            if (Files.isDirectory(hotelsDir())) {
+                try (Stream<Path> fragments = Files.list(hotelsDir())) {
+                    fragments.map(path -> path.getFileName().toString())
+                            .filter(name -> name.endsWith(FRAGMENT_EXTENSION))
+                            .map(name -> name.substring(0, name.length() - FRAGMENT_EXTENSION.length()))
+                            .forEach(hotelIds::add);
+                }
+            }
+            loaded = true;
+            log.info("Loaded hotel state store from {}: {} hotels, {} source files",
+                    storeDir(), hotelIds.size(), sourceHashes.size());
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to load hotel state store", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //kept as links to the files of the run that stored them, so they outlive that run's directory
+    private void keepImages(Set<String> changedHotelIds, Path imagesDir) throws IOException {
+        Map<String, List<Path>> runImages = new HashMap<>();
+        if (Files.isDirectory(imagesDir)) {
+            try (Stream<Path> images = Files.list(imagesDir)) {
+                images.forEach(image -> {
+                    Matcher matcher = IMAGE_FILE_PATTERN.matcher(image.getFileName().toString());
+                    if (matcher.matches() && changedHotelIds.contains(matcher.group(1))) {
+                        runImages.computeIfAbsent(matcher.group(1), k -> new ArrayList<>()).add(image);
+                    }
+                });
+            }
+        }
+        for (String hotelId : changedHotelIds) {
+            Path keptDir = keptImagesDir(hotelId);
+            if (Files.isDirectory(keptDir)) {
+                try (Stream<Path> kept = Files.list(keptDir)) {
+                    for (Path image : kept.toList()) {
+                        Files.delete(image);
+                    }
+                }
+            }
+            Files.createDirectories(keptDir);
+            for (Path image : runImages.getOrDefault(hotelId, List.of())) {
+                FileLinks.linkOrCopy(image, keptDir.resolve(image.getFileName()));
+            }
+        }
+    }
+
+    private int linkKeptImages(Path imagesDir) throws IOException {
+        int linked = 0;
+        for (String hotelId : hotelIds) {
+            Path keptDir = keptImagesDir(hotelId);
+            if (!Files.isDirectory(keptDir)) continue;
+            try (Stream<Path> kept = Files.list(keptDir)) {
+                for (Path image : kept.toList()) {
+                    //images of hotels changed by this run are its own files already
+                    Path target = imagesDir.resolve(image.getFileName());
+                    if (Files.exists(target)) continue;
+                    Files.createDirectories(imagesDir);
+                    FileLinks.linkOrCopy(image, target);
+                    linked++;
+                }
+            }
+        }
+        return linked;
+    }
+
+    private Path storeDir() {
+        String dir = appProperties.stateStore().dir();
+        return (dir == null || dir.isBlank())
+                ? Path.of(appProperties.outputDir()).resolve(STATE_FOLDER_NAME)
+                : Path.of(dir);
+    }
+
+    private Path hotelsDir() {
+        return storeDir().resolve(HOTELS_FOLDER_NAME);
+    }
+
+    private Path fragmentPath(String hotelId) {
+        return hotelsDir().resolve(validateHotelId(hotelId) + FRAGMENT_EXTENSION);
+    }
+
+    private Path keptImagesDir(String hotelId) {
+        return storeDir().resolve(IMAGES_FOLDER_NAME).resolve(validateHotelId(hotelId));
+    }
+
+    //hotel id comes from the uploaded file name and ends up in a path
+    private static String validateHotelId(String hotelId) {
+        if (!HOTEL_ID_PATTERN.matcher(hotelId).matches()) {
+            throw new HotelValidationException("Invalid hotel id: " + hotelId);
+        }
+        return hotelId;
+    }
+
+    private void writeAtomically(Path target, byte[] data) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,231 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelFileSystemException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@Service
+public class ImageDedupService {
+    private final AppProperties.Dedup properties;
+
+    //entries are kept in parallel arrays: a lookup is a scan over packed longs,
+    //which stays in the microsecond range for hundreds of thousands of images
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private final List<String> files = new ArrayList<>();
+    private final List<Set<String>> hotels = new ArrayList<>();
+    //write of an entry still in progress, null once its file exists
+    private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+    private int size;
+    private boolean dirty;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    @FunctionalInterface
+    public interface FileWrite {
+        void write() throws IOException;
+    }
+
+    public ImageDedupService(AppProperties appProperties) {
+        this.properties = appProperties.images().dedup();
+        if (properties.enabled() && isPersistent()) {
+            load(Path.of(properties.indexFile()));
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    //difference hash: each bit tells whether a pixel is brighter than its right neighbour on a 9x8 grayscale thumbnail,
+    //so it survives rescaling and re-encoding of the same photo
+    public static long dHash(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(HASH_WIDTH, HASH_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, HASH_WIDTH, HASH_HEIGHT, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        Raster raster = gray.getRaster();
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (raster.getSample(x, y, 0) > raster.getSample(x + 1, y, 0)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    //lookup and registration in one step: returns the stored file of a near-duplicate and records the hotel as
+    //referencing it, or takes storedFile as a new entry and writes it. The write runs outside the lock, lookups
+    //matching the entry meanwhile wait for it, and a failed write removes the entry again
+    public Optional<Path> findOrRegister(long hash, String hotelId, Path storedFile, FileWrite write)
+            throws IOException {
+        while (true) {
+            CompletableFuture<Void> pending;
+            CompletableFuture<Void> own = null;
+            synchronized (this) {
+                int match = findNearest(hash);
+                //stored file was removed, the new one takes its place
+                while (match >= 0 && writes.get(match) == null && !Files.exists(Path.of(files.get(match)))) {
+                    remove(match);
+                    match = findNearest(hash);
+                }
+                if (match >= 0 && writes.get(match) == null) {
+                    hotels.get(match).add(hotelId);
+                    dirty = true;
+                    return Optional.of(Path.of(files.get(match)));
+                }
+                if (match >= 0) {
+                    pending = writes.get(match);
+                } else {
+                    pending = own = new CompletableFuture<>();
+                    add(hash, storedFile.toAbsolutePath().toString(), new HashSet<>(Set.of(hotelId)), own);
+                }
+            }
+            if (own != null) {
+                completeWrite(own, write);
+                return Optional.empty();
+            }
+            //the near-duplicate is still being written, looked up again once it is there or gone
+            pending.handle((result, e) -> null).join();
+        }
+    }
+
+    private void completeWrite(CompletableFuture<Void> entry, FileWrite write) throws IOException {
+        try {
+            write.write();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                remove(writes.indexOf(entry));
+            }
+            entry.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            writes.set(writes.indexOf(entry), null);
+            dirty = true;
+        }
+        entry.complete(null);
+    }
+
+    public synchronized Set<String> hotelsReferencing(Path storedFile) {
+        int index = files.indexOf(storedFile.toAbsolutePath().toString());
+        return index < 0 ? Set.of() : Set.copyOf(hotels.get(index));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @PreDestroy
+    public synchronized void persist() {
+        if (!properties.enabled() || !isPersistent() || !dirty) return;
+        Path indexFile = Path.of(properties.indexFile());
+        try {
+            Path parent = indexFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt((int) writes.stream().filter(Objects::isNull).count());
+                for (int i = 0; i < size; i++) {
+                    //written by the next persist, if the write succeeds
+                    if (writes.get(i) != null) continue;
+                    out.writeLong(hashes[i]);
+                    out.writeUTF(files.get(i));
+                    out.writeInt(hotels.get(i).size());
+                    for (String hotelId : hotels.get(i)) {
+                        out.writeUTF(hotelId);
+                    }
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.info("Saved image dedup index with {} images to {}", size, indexFile);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to save image dedup index", e);
+        }
+    }
+
+    private int findNearest(long hash) {
+        int best = -1;
+        int bestDistance = properties.maxDistance() + 1;
+        for (int i = 0; i < size && bestDistance > 0; i++) {
+            int distance = Long.bitCount(hashes[i] ^ hash);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private void add(long hash, String file, Set<String> hotelIds, CompletableFuture<Void> write) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        hashes[size++] = hash;
+        files.add(file);
+        hotels.add(hotelIds);
+        writes.add(write);
+    }
+
+    private void remove(int index) {
+        System.arraycopy(hashes, index + 1, hashes, index, size - index - 1);
+        size--;
+        files.remove(index);
+        hotels.remove(index);
+        writes.remove(index);
+        dirty = true;
+    }
+
+    private boolean isPersistent() {
+        return properties.indexFile() != null && !properties.indexFile().isBlank();
+    }
+
+    private void load(Path indexFile) {
+        if (!Files.exists(indexFile)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long hash = in.readLong();
+                String file = in.readUTF();
+                int hotelCount = in.readInt();
+                Set<String> hotelIds = new HashSet<>();
+                for (int j = 0; j < hotelCount; j++) {
+                    hotelIds.add(in.readUTF());
+                }
+                //skip images deleted since the index was written
+                if (Files.exists(Path.of(file))) {
+                    add(hash, file, hotelIds, null);
+                }
+            }
+            log.info("Loaded image dedup index with {} images from {}", size, indexFile);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to load image dedup index", e);
+        }
+    }
+}
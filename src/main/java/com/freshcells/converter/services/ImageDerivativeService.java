@@ -0,0 +1,103 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.StageOverflow;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@Service
+public class ImageDerivativeService {
+    private final List<Integer> sizes;
+    private final PipelineStage stage;
+
+    private static final String DEFAULT_FORMAT = "jpg";
+    private static final List<String> ALPHA_FORMATS = List.of("png", "gif");
+
+    public ImageDerivativeService(AppProperties appProperties) {
+        AppProperties.Images properties = appProperties.images();
+        this.sizes = properties.derivativeSizes();
+        //CPU work gets its own stage, separate from the threads doing network I/O;
+        //when the queue is full the submitting download waits, so decoded images can't pile up unbounded
+        this.stage = new PipelineStage("derive", properties.derivativeThreads(),
+                properties.derivativeQueueCapacity(), StageOverflow.BLOCK);
+    }
+
+    public boolean isEnabled() {
+        return !sizes.isEmpty();
+    }
+
+    public int queuedTasks() {
+        return stage.queued();
+    }
+
+    public PipelineStage stage() {
+        return stage;
+    }
+
+    //resized variants are written next to the original: 'hotel_uuid.jpg' -> 'hotel_uuid_200.jpg'
+    public CompletableFuture<List<Path>> createDerivatives(BufferedImage image, Path original) {
+        return stage.submit(() -> sizes.stream()
+                .filter(size -> Math.max(image.getWidth(), image.getHeight()) > size)
+                .map(size -> writeDerivative(image, original, size))
+                .toList());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stage.shutdown();
+    }
+
+    private Path writeDerivative(BufferedImage image, Path original, int size) {
+        String filename = original.getFileName().toString();
+        String format = derivativeFormat(FilenameUtils.getExtension(filename));
+        Path target = original.resolveSibling(
+                String.format("%s_%d.%s", FilenameUtils.getBaseName(filename), size, format));
+        try {
+            if (!ImageIO.write(resize(image, size, format), format, target.toFile())) {
+                throw new IOException("No image writer for format " + format);
+            }
+            log.debug("Created {}px derivative {}", size, target);
+            return target;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create derivative " + target, e);
+        }
+    }
+
+    private BufferedImage resize(BufferedImage image, int size, String format) {
+        double scale = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        //jpeg writer can't encode an alpha channel
+        int type = ALPHA_FORMATS.contains(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage resized = new BufferedImage(width, height, type);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private String derivativeFormat(String extension) {
+        String format = extension.toLowerCase();
+        if (ALPHA_FORMATS.contains(format)) return format;
+        return DEFAULT_FORMAT;
+    }
+}
@@ -0,0 +1,204 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.FileExtension;
+import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.model.RawJson;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+public class ParseCacheService {
+    private final AppProperties.ParseCache properties;
+    private final SmileMapper smileMapper = new SmileMapper();
+
+    //access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    private static final String ENTRY_EXTENSION = ".smile";
+
+    public ParseCacheService(AppProperties appProperties) {
+        this.properties = appProperties.parseCache();
+        if (properties.enabled() && isPersistent()) {
+            load(Path.of(properties.persistDir()));
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.enabled();
+    }
+
+    public static String key(byte[] content, FileExtension extension) {
+        return key(ContentHash.sha256(content), extension);
+    }
+
+    public static String key(String contentHash, FileExtension extension) {
+        return contentHash + "-" + extension.getExtension();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Optional<Map<String, Object>> get(String key) {
+        byte[] encoded;
+        synchronized (this) {
+            encoded = entries.get(key);
+            if (encoded == null) {
+                misses++;
+                return Optional.empty();
+            }
+            hits++;
+        }
+        try {
+            Map<String, Object> content = smileMapper.readValue(encoded, Map.class);
+            content.replaceAll((field, value) -> restoreRawJson(value));
+            return Optional.of(content);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable parse cache entry {}: {}", key, e.getMessage());
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, Map<String, Object> content) {
+        byte[] encoded;
+        try {
+            encoded = smileMapper.writeValueAsBytes(content);
+        } catch (IOException e) {
+            log.warn("Failed to encode parse result for cache: {}", e.getMessage());
+            return;
+        }
+        //a single result larger than the whole budget would evict everything else
+        if (encoded.length > properties.maxBytes()) return;
+
+        synchronized (this) {
+            byte[] previous = entries.put(key, encoded);
+            totalBytes += encoded.length - (previous == null ? 0 : previous.length);
+            evict();
+        }
+    }
+
+    public synchronized long sizeInBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    @PreDestroy
+    public synchronized void persist() {
+        if (!properties.enabled() || !isPersistent()) return;
+        Path dir = Path.of(properties.persistDir());
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.filter(this::isEntryFile).toList()) {
+                    if (!entries.containsKey(keyOf(file))) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            //modification time keeps the LRU order for the next start
+            long time = System.currentTimeMillis() - entries.size();
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                Path file = dir.resolve(entry.getKey() + ENTRY_EXTENSION);
+                if (!Files.exists(file)) {
+                    Files.write(file, entry.getValue());
+                }
+                Files.setLastModifiedTime(file, FileTime.fromMillis(time++));
+            }
+            log.info("Saved {} parse cache entries ({} bytes) to {}", entries.size(), totalBytes, dir);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to persist parse cache", e);
+        }
+    }
+
+    //pass-through subtrees are stored as marker objects, see RawJson.serialize
+    @SuppressWarnings("unchecked")
+    private static Object restoreRawJson(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            if (map.get(RawJson.JSON_FIELD) instanceof byte[] json) {
+                return new RawJson(json, Set.copyOf((List<String>) map.get(RawJson.IMAGE_URLS_FIELD)));
+            }
+            ((Map<Object, Object>) map).replaceAll((field, child) -> restoreRawJson(child));
+        } else if (value instanceof List<?> list) {
+            ((List<Object>) list).replaceAll(ParseCacheService::restoreRawJson);
+        }
+        return value;
+    }
+
+    private synchronized void remove(String key) {
+        byte[] removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.length;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (totalBytes > properties.maxBytes() && eldest.hasNext()) {
+            totalBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    private boolean isPersistent() {
+        return properties.persistDir() != null && !properties.persistDir().isBlank();
+    }
+
+    private boolean isEntryFile(Path file) {
+        return file.getFileName().toString().endsWith(ENTRY_EXTENSION);
+    }
+
+    private String keyOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ENTRY_EXTENSION.length());
+    }
+
+    private void load(Path dir) {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            //oldest first, so the most recently used entries end up most recent again
+            List<Path> sorted = files.filter(this::isEntryFile)
+                    .sorted(Comparator.comparing(this::lastModified))
+                    .toList();
+            for (Path file : sorted) {
+                byte[] encoded = Files.readAllBytes(file);
+                entries.put(keyOf(file), encoded);
+                totalBytes += encoded.length;
+            }
+            evict();
+            log.info("Loaded {} parse cache entries ({} bytes) from {}", entries.size(), totalBytes, dir);
+        } catch (IOException e) {
+            throw new HotelFileSystemException("Failed to load parse cache", e);
+        }
+    }
+
+    private FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
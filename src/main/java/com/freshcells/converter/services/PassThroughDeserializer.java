@@ -0,0 +1,154 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.freshcells.converter.model.RawJson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+//untyped deserializer that copies values at the configured paths token by token into RawJson
+//instead of building maps and lists for them
+class PassThroughDeserializer extends UntypedObjectDeserializer {
+    private final List<String[]> rules;
+    //names a matching value can have, checked before the path is built
+    private final Set<String> lastSegments = new HashSet<>();
+    private final boolean anyName;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final String ANY_FIELD = "*";
+    private static final String ANY_DEPTH = "**";
+    private static final String URL_TAG_NAME = "url";
+
+    PassThroughDeserializer(List<String[]> rules) {
+        super(null, null);
+        this.rules = rules;
+        boolean wildcard = false;
+        for (String[] rule : rules) {
+            String last = rule[rule.length - 1];
+            wildcard |= ANY_FIELD.equals(last) || ANY_DEPTH.equals(last);
+            lastSegments.add(last);
+        }
+        this.anyName = wildcard;
+    }
+
+    @Override
+    public JsonDeserializer<?> createContextual(DeserializationContext ctxt, BeanProperty property) {
+        //the base class would replace itself with its vanilla variant
+        return this;
+    }
+
+    @Override
+    public Object deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+        JsonToken token = parser.currentToken();
+        JsonStreamContext context = parser.getParsingContext();
+        if (token != null && token.isStructStart()) {
+            context = context.getParent();
+        }
+        if (context.inObject() && (anyName || lastSegments.contains(context.getCurrentName()))
+                && FieldProjection.anyMatches(rules, path(context))) {
+            return capture(parser, ctxt, context.getCurrentName());
+        }
+        return super.deserialize(parser, ctxt);
+    }
+
+    private RawJson capture(JsonParser parser, DeserializationContext ctxt, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            copy(parser, generator, ctxt.isEnabled(StreamReadCapability.DUPLICATE_PROPERTIES));
+        }
+        byte[] json = out.toByteArray();
+        return new RawJson(json, imageUrls(json, name));
+    }
+
+    //xml repeats an element instead of writing an array, the untyped deserializer turns repeats into a list;
+    //the copy does the same so the fragment reads back to the value a full parse gives
+    private void copy(JsonParser parser, JsonGenerator generator, boolean squashDuplicates) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT -> {
+                if (!squashDuplicates) {
+                    generator.copyCurrentStructure(parser);
+                    return;
+                }
+                Map<String, List<TokenBuffer>> fields = new LinkedHashMap<>();
+                for (String name = parser.nextFieldName(); name != null; name = parser.nextFieldName()) {
+                    parser.nextToken();
+                    TokenBuffer value = new TokenBuffer(parser);
+                    copy(parser, value, true);
+                    fields.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+                }
+                generator.writeStartObject();
+                for (Map.Entry<String, List<TokenBuffer>> field : fields.entrySet()) {
+                    generator.writeFieldName(field.getKey());
+                    List<TokenBuffer> values = field.getValue();
+                    if (values.size() == 1) {
+                        replay(values.get(0), generator);
+                    } else {
+                        generator.writeStartArray();
+                        for (TokenBuffer value : values) {
+                            replay(value, generator);
+                        }
+                        generator.writeEndArray();
+                    }
+                }
+                generator.writeEndObject();
+            }
+            case START_ARRAY -> {
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copy(parser, generator, squashDuplicates);
+                }
+                generator.writeEndArray();
+            }
+            default -> generator.copyCurrentEvent(parser);
+        }
+    }
+
+    private void replay(TokenBuffer buffer, JsonGenerator generator) throws IOException {
+        try (JsonParser buffered = buffer.asParser()) {
+            buffered.nextToken();
+            generator.copyCurrentStructure(buffered);
+        }
+    }
+
+    //same rules as HotelConverterService.extractAllImageUrls, applied to the fragment with a streaming parser
+    private Set<String> imageUrls(byte[] json, String name) throws IOException {
+        Set<String> urls = new HashSet<>();
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                if (token != JsonToken.VALUE_STRING) continue;
+                String text = parser.getText();
+                if (HotelConverterService.IMAGE_URL_PATTERN.matcher(text).matches()
+                        || isImageElementUrl(parser.getParsingContext(), name)) {
+                    urls.add(text);
+                }
+            }
+        }
+        return Set.copyOf(urls);
+    }
+
+    //'url' of an object in the list of an 'image' field
+    private boolean isImageElementUrl(JsonStreamContext context, String name) {
+        if (!context.inObject() || !URL_TAG_NAME.equals(context.getCurrentName())) return false;
+        JsonStreamContext list = context.getParent();
+        if (!list.inArray()) return false;
+        JsonStreamContext owner = list.getParent();
+        String ownerName = owner.inRoot() ? name : owner.getCurrentName();
+        return HotelConverterService.IMAGE_TAG_NAME.equals(ownerName);
+    }
+
+    private static String[] path(JsonStreamContext context) {
+        Deque<String> names = new ArrayDeque<>();
+        for (JsonStreamContext current = context; current != null && !current.inRoot(); current = current.getParent()) {
+            if (current.inObject() && current.getCurrentName() != null) {
+                names.addFirst(current.getCurrentName());
+            }
+        }
+        return names.toArray(String[]::new);
+    }
+}
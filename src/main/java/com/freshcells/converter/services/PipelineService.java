@@ -0,0 +1,54 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.model.PipelineStageStats;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+//stages shared by all batches, in the order an image goes through them: fetch -> validate -> derive;
+//hotels documents go through write. Parsing and extraction run on the batch's own thread, which is held back
+//by the fetch stage when downloads can't keep up
+@Service
+public class PipelineService {
+    private final PipelineStage fetch;
+    private final PipelineStage validate;
+    private final PipelineStage write;
+    private final ImageDerivativeService imageDerivativeService;
+
+    public PipelineService(AppProperties appProperties, ImageDerivativeService imageDerivativeService) {
+        AppProperties.Pipeline properties = appProperties.pipeline();
+        this.fetch = stage("fetch", properties.fetch());
+        this.validate = stage("validate", properties.validate());
+        this.write = stage("write", properties.write());
+        this.imageDerivativeService = imageDerivativeService;
+    }
+
+    public PipelineStage fetch() {
+        return fetch;
+    }
+
+    public PipelineStage validate() {
+        return validate;
+    }
+
+    public PipelineStage write() {
+        return write;
+    }
+
+    public List<PipelineStageStats> stats() {
+        return List.of(fetch.stats(), validate.stats(), imageDerivativeService.stage().stats(), write.stats());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetch.shutdown();
+        validate.shutdown();
+        write.shutdown();
+    }
+
+    private static PipelineStage stage(String name, AppProperties.Stage properties) {
+        return new PipelineStage(name, properties.parallelism(), properties.queueCapacity(), properties.overflow());
+    }
+}
@@ -0,0 +1,292 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.enums.StageOverflow;
+import com.freshcells.converter.model.PipelineStageStats;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+//one step of the image pipeline: at most 'parallelism' tasks hold a slot, up to 'queueCapacity' more wait for one;
+//a task is submitted together with its handoff to the next stage, and the slot is released only after the handoff
+//returned, so a task whose result can't be handed over to a full next stage keeps its slot and the stage stops taking
+//new work - that is how back-pressure travels upstream
+public class PipelineStage {
+    private final String name;
+    private final int parallelism;
+    private final int queueCapacity;
+    private final StageOverflow overflow;
+    private final ExecutorService executor;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<Task<?, ?>> waiting = new ArrayDeque<>();
+    //completions per second of the last THROUGHPUT_SECONDS seconds, ring indexed by second
+    private final long[] bucketSeconds = new long[THROUGHPUT_SECONDS];
+    private final long[] bucketCounts = new long[THROUGHPUT_SECONDS];
+    private int active;
+    private long completed;
+    private long shed;
+    private boolean shutdown;
+
+    private static final int THROUGHPUT_SECONDS = 10;
+
+    public PipelineStage(String name, int parallelism, int queueCapacity, StageOverflow overflow) {
+        this(name, parallelism, queueCapacity, overflow, System::nanoTime);
+    }
+
+    PipelineStage(String name, int parallelism, int queueCapacity, StageOverflow overflow, LongSupplier nanoClock) {
+        this.name = name;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.queueCapacity = queueCapacity;
+        this.overflow = overflow;
+        this.nanoClock = nanoClock;
+        //a thread only starts a task, one per slot is enough
+        this.executor = Executors.newFixedThreadPool(this.parallelism, new NamedThreadFactory(name + "-"));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    //blocking work, runs on the stage's threads
+    public <T> CompletableFuture<T> submit(Callable<T> work) {
+        return submit(work, CompletableFuture::completedFuture);
+    }
+
+    public <T, R> CompletableFuture<R> submit(Callable<T> work, Function<T, CompletableFuture<R>> handoff) {
+        return submitAsync(() -> {
+            try {
+                return CompletableFuture.completedFuture(work.call());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }, handoff);
+    }
+
+    //asynchronous work, e.g. an HTTP exchange: started on the stage's threads, holds its slot until it completes
+    public <T> CompletableFuture<T> submitAsync(Supplier<CompletableFuture<T>> work) {
+        return submitAsync(work, CompletableFuture::completedFuture);
+    }
+
+    //handoff - passes the work's result to the next stage, typically by submitting to it; it runs on the stage's
+    //threads while the slot is still held, so a full next stage never blocks the thread completing the work. The returned future completes with the handoff's future;
+    //cancelling it cancels the work and the handed over task, or drops the task if it is still waiting
+    public <T, R> CompletableFuture<R> submitAsync(Supplier<CompletableFuture<T>> work,
+                                                   Function<T, CompletableFuture<R>> handoff) {
+        Task<T, R> task = new Task<>(work, handoff);
+        lock.lock();
+        try {
+            while (!shutdown && active >= parallelism && waiting.size() >= queueCapacity) {
+                if (overflow == StageOverflow.SHED) {
+                    shed++;
+                    return CompletableFuture.failedFuture(
+                            new RejectedExecutionException("Pipeline stage " + name + " is full"));
+                }
+                notFull.await();
+            }
+            if (shutdown) {
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Pipeline stage " + name + " is shut down"));
+            }
+            if (active < parallelism) {
+                active++;
+            } else {
+                waiting.add(task);
+                task.result.whenComplete((result, e) -> {
+                    if (task.result.isCancelled()) dequeue(task);
+                });
+                return task.result;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Interrupted while waiting for pipeline stage " + name, e));
+        } finally {
+            lock.unlock();
+        }
+        start(task);
+        return task.result;
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PipelineStageStats stats() {
+        lock.lock();
+        try {
+            long second = currentSecond();
+            long recent = 0;
+            for (int i = 0; i < THROUGHPUT_SECONDS; i++) {
+                if (second - bucketSeconds[i] < THROUGHPUT_SECONDS) recent += bucketCounts[i];
+            }
+            return new PipelineStageStats(name, parallelism, queueCapacity, overflow, active, waiting.size(),
+                    completed, shed, (double) recent / THROUGHPUT_SECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //waiting tasks fail, blocked submitters are released
+    public void shutdown() {
+        Deque<Task<?, ?>> dropped;
+        lock.lock();
+        try {
+            shutdown = true;
+            dropped = new ArrayDeque<>(waiting);
+            waiting.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dropped.forEach(task -> task.result.completeExceptionally(
+                new RejectedExecutionException("Pipeline stage " + name + " is shut down")));
+        executor.shutdown();
+    }
+
+    private void start(Task<?, ?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.result.completeExceptionally(e);
+            release();
+        }
+    }
+
+    //after shutdown the handoff still has to run, or the task would never complete nor release its slot
+    private void handOver(Runnable handoff) {
+        try {
+            executor.execute(handoff);
+        } catch (RejectedExecutionException e) {
+            handoff.run();
+        }
+    }
+
+    //the slot goes to the oldest waiting task, or back to the pool
+    private void release() {
+        Task<?, ?> next;
+        lock.lock();
+        try {
+            completed++;
+            long second = currentSecond();
+            int bucket = (int) (second % THROUGHPUT_SECONDS);
+            if (bucketSeconds[bucket] != second) {
+                bucketSeconds[bucket] = second;
+                bucketCounts[bucket] = 0;
+            }
+            bucketCounts[bucket]++;
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+            }
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    private void dequeue(Task<?, ?> task) {
+        lock.lock();
+        try {
+            if (waiting.remove(task)) {
+                notFull.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(nanoClock.getAsLong());
+    }
+
+    private class Task<T, R> implements Runnable {
+        private final Supplier<CompletableFuture<T>> work;
+        private final Function<T, CompletableFuture<R>> handoff;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Task(Supplier<CompletableFuture<T>> work, Function<T, CompletableFuture<R>> handoff) {
+            this.work = work;
+            this.handoff = handoff;
+        }
+
+        @Override
+        public void run() {
+            //cancelled after it was taken from the queue
+            if (result.isDone()) {
+                release();
+                return;
+            }
+            CompletableFuture<T> started = call(work::get);
+            cancelWithResult(started);
+            started.whenCompleteAsync((value, e) -> {
+                try {
+                    if (e != null) {
+                        result.completeExceptionally(unwrap(e));
+                        return;
+                    }
+                    CompletableFuture<R> next = call(() -> handoff.apply(value));
+                    cancelWithResult(next);
+                    next.whenComplete((handedOver, error) -> {
+                        if (error == null) {
+                            result.complete(handedOver);
+                        } else {
+                            result.completeExceptionally(unwrap(error));
+                        }
+                    });
+                } finally {
+                    release();
+                }
+            }, PipelineStage.this::handOver);
+        }
+
+        private void cancelWithResult(CompletableFuture<?> future) {
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) future.cancel(true);
+            });
+        }
+
+        private static <V> CompletableFuture<V> call(Supplier<CompletableFuture<V>> step) {
+            try {
+                return step.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private static Throwable unwrap(Throwable e) {
+            return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
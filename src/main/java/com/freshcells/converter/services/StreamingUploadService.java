@@ -0,0 +1,87 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.exceptions.HotelFileProcessingException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.ProcessingResult;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.IOException;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamingUploadService {
+    private final HotelConverterService hotelConverterService;
+    private final FileProcessingService fileProcessingService;
+    private final MultipartProperties multipartProperties;
+
+    private static final String FILES_FIELD_NAME = "files";
+
+    //reads the multipart body part by part straight from the request, each file is parsed while it arrives
+    //and its images start downloading before the next part is received
+    public ProcessingResult processUpload(HttpServletRequest request, String batchId) {
+        if (!JakartaServletFileUpload.isMultipartContent(request)) {
+            throw new HotelValidationException("Multipart request expected");
+        }
+        JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+        upload.setFileSizeMax(multipartProperties.getMaxFileSize().toBytes());
+        upload.setSizeMax(multipartProperties.getMaxRequestSize().toBytes());
+
+        HotelConverterService.Batch batch = hotelConverterService.startBatch(batchId);
+        int processedFiles = 0;
+        try {
+            FileItemInputIterator parts = upload.getItemIterator(request);
+            while (parts.hasNext()) {
+                FileItemInput part = parts.next();
+                if (part.isFormField() || !FILES_FIELD_NAME.equals(part.getFieldName())) continue;
+                processedFiles++;
+
+                String filename = part.getName();
+                if (filename == null || filename.isEmpty()) continue;
+
+                long parseStart = System.nanoTime();
+                FileProcessingService.ParsedFile parsed = fileProcessingService.processStream(filename, part.getInputStream());
+                //parse time includes waiting for the part to arrive
+                batch.metrics().fileParsed(filename, parsed.bytes(), System.nanoTime() - parseStart);
+                if (batch.skipUnchanged(filename, parsed.contentHash())) continue;
+                batch.accept(filename, parsed.content());
+                log.debug("Streamed file {} processed", filename);
+            }
+            return batch.finish(processedFiles);
+        } catch (IOException | RuntimeException e) {
+            RuntimeException failure = sizeExceeded(e, upload.getSizeMax());
+            batch.fail(failure);
+            throw failure;
+        }
+    }
+
+    //content length is unknown for chunked uploads, then the request may still use the whole limit
+    public long expectedUploadBytes(HttpServletRequest request) {
+        long contentLength = request.getContentLengthLong();
+        return contentLength >= 0 ? contentLength : multipartProperties.getMaxRequestSize().toBytes();
+    }
+
+    //size limits are hit while reading a part, possibly deep inside the parser
+    private RuntimeException sizeExceeded(Exception e, long maxSize) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FileUploadSizeException) {
+                return new MaxUploadSizeExceededException(maxSize, e);
+            }
+        }
+        if (e instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new HotelFileProcessingException("Failed to read multipart upload", e);
+    }
+}
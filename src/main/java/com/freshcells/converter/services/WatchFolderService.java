@@ -0,0 +1,243 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.model.ProcessingResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//converts feed files as they are uploaded to a directory: changes are reported by the WatchService,
+//files of a hotel are picked up together once none of them was written to for the debounce period
+@Slf4j
+@Service
+//nothing requests this bean, the fast-start profile's lazy initialization would never start the watcher
+@Lazy(false)
+public class WatchFolderService {
+    private final AppProperties.Watch properties;
+    private final HotelConverterService hotelConverterService;
+    private final FileProcessingService fileProcessingService;
+    private final long debounceNanos;
+    private final long minBatchIntervalNanos;
+    private final long wakeupMillis;
+    //files seen but not processed yet by hotel id, touched by the watcher thread only
+    private final SortedMap<String, Map<Path, PendingFile>> pending = new TreeMap<>();
+    private long lastBatchNanos;
+    private volatile boolean running;
+    private Thread watcher;
+
+    static final String PROCESSED_DIR = ".processed";
+    static final String FAILED_DIR = ".failed";
+    private static final long MIN_WAKEUP_MILLIS = 10;
+
+    //size at the last change, a file growing without events is not quiet either
+    private record PendingFile(long lastChangeNanos, long size) {}
+
+    public WatchFolderService(AppProperties appProperties,
+                              HotelConverterService hotelConverterService,
+                              FileProcessingService fileProcessingService) {
+        this.properties = appProperties.watch();
+        this.hotelConverterService = hotelConverterService;
+        this.fileProcessingService = fileProcessingService;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(properties.debounceMillis());
+        this.minBatchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(properties.minBatchIntervalMillis());
+        this.wakeupMillis = Math.max(MIN_WAKEUP_MILLIS, properties.debounceMillis() / 2);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.enabled()) return;
+        if (properties.dir().isBlank()) {
+            throw new IllegalStateException("app.watch.dir is required in the watch mode");
+        }
+        Path dir = Path.of(properties.dir());
+        running = true;
+        watcher = Thread.ofPlatform().name("watch-folder").daemon().start(() -> watch(dir));
+        log.info("Watching {} for feed files", dir);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    private void watch(Path dir) {
+        try (WatchService watchService = dir.getFileSystem().newWatchService()) {
+            Files.createDirectories(dir);
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            //files uploaded while the instance was down, or before the directory was registered
+            scan(dir, System.nanoTime());
+            while (running) {
+                //blocks until something changes, wakes up on its own only while files wait for their debounce period
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(wakeupMillis, TimeUnit.MILLISECONDS);
+                long now = System.nanoTime();
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(dir, now);
+                        } else {
+                            changed(dir.resolve((Path) event.context()), now);
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.error("Watch folder {} is no longer accessible", dir);
+                        return;
+                    }
+                }
+                processReady(dir, now);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Failed to watch {}", dir, e);
+        }
+    }
+
+    void scan(Path dir, long now) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(Files::isRegularFile).forEach(file -> changed(file, now));
+        }
+    }
+
+    void changed(Path file, long now) {
+        String filename = file.getFileName().toString();
+        if (!FileProcessingService.isFeedFile(filename)) return;
+        long size = sizeOf(file);
+        String hotelId = hotelId(file);
+        if (size < 0) {
+            Map<Path, PendingFile> group = pending.get(hotelId);
+            if (group != null) group.remove(file);
+            return;
+        }
+        pending.computeIfAbsent(hotelId, k -> new TreeMap<>()).put(file, new PendingFile(now, size));
+    }
+
+    //files of the next micro-batch: whole hotel groups whose files are all quiet, up to maxFilesPerBatch
+    List<Path> takeReady(long now) {
+        List<Path> batch = new ArrayList<>();
+        Iterator<Map.Entry<String, Map<Path, PendingFile>>> groups = pending.entrySet().iterator();
+        while (groups.hasNext()) {
+            Map<Path, PendingFile> files = groups.next().getValue();
+            boolean quiet = true;
+            for (Iterator<Map.Entry<Path, PendingFile>> it = files.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Path, PendingFile> file = it.next();
+                long size = sizeOf(file.getKey());
+                if (size < 0) {
+                    it.remove();
+                } else if (size != file.getValue().size()) {
+                    file.setValue(new PendingFile(now, size));
+                    quiet = false;
+                } else if (now - file.getValue().lastChangeNanos() < debounceNanos) {
+                    quiet = false;
+                }
+            }
+            if (files.isEmpty()) {
+                groups.remove();
+                continue;
+            }
+            if (!quiet) continue;
+            if (!batch.isEmpty() && batch.size() + files.size() > properties.maxFilesPerBatch()) break;
+            batch.addAll(files.keySet());
+            groups.remove();
+        }
+        return batch;
+    }
+
+    private void processReady(Path dir, long now) {
+        if (lastBatchNanos != 0 && now - lastBatchNanos < minBatchIntervalNanos) return;
+        List<Path> files = takeReady(now);
+        if (files.isEmpty()) return;
+        process(dir, files);
+        lastBatchNanos = System.nanoTime();
+    }
+
+    //files of a hotel that fails to convert go to FAILED_DIR, the other hotels are converted again without them
+    void process(Path dir, List<Path> files) {
+        List<Path> remaining = files;
+        while (!remaining.isEmpty()) {
+            remaining = processBatch(dir, remaining);
+        }
+    }
+
+    //the same steps as a streamed upload, read from disk instead of the request;
+    //returns the files to convert again when the batch was failed by a single hotel
+    private List<Path> processBatch(Path dir, List<Path> files) {
+        HotelConverterService.Batch batch = hotelConverterService.startBatch(BatchProgressService.newBatchId());
+        Path current = null;
+        try {
+            for (Path file : files) {
+                current = file;
+                String filename = file.getFileName().toString();
+                long parseStart = System.nanoTime();
+                FileProcessingService.ParsedFile parsed;
+                try (InputStream input = Files.newInputStream(file)) {
+                    parsed = fileProcessingService.processStream(filename, input);
+                }
+                batch.metrics().fileParsed(filename, parsed.bytes(), System.nanoTime() - parseStart);
+                if (batch.skipUnchanged(filename, parsed.contentHash())) continue;
+                batch.accept(filename, parsed.content());
+            }
+            current = null;
+            ProcessingResult result = batch.finish(files.size());
+            log.info("Converted {} files from {} into {}", files.size(), dir,
+                    result.jsonFile() != null ? result.jsonFile() : result.manifestFile());
+            moveAll(dir, files, PROCESSED_DIR);
+            return List.of();
+        } catch (IOException | RuntimeException e) {
+            batch.fail(e);
+            if (!running) {
+                //interrupted by shutdown, the files are picked up again on the next start
+                log.warn("Conversion of {} files from {} stopped by shutdown", files.size(), dir);
+                return List.of();
+            }
+            if (current == null) {
+                log.error("Failed to convert {} files from {}: {}", files.size(), dir, e.getMessage());
+                moveAll(dir, files, FAILED_DIR);
+                return List.of();
+            }
+            String failedHotelId = hotelId(current);
+            List<Path> failed = files.stream().filter(file -> hotelId(file).equals(failedHotelId)).toList();
+            log.error("Failed to convert {} of hotel {} from {}: {}", current.getFileName(), failedHotelId, dir,
+                    e.getMessage());
+            moveAll(dir, failed, FAILED_DIR);
+            return files.stream().filter(file -> !failed.contains(file)).toList();
+        }
+    }
+
+    //a processed file leaves the directory, so a restart doesn't convert it again
+    private void moveAll(Path dir, List<Path> files, String target) {
+        try {
+            Path targetDir = Files.createDirectories(dir.resolve(target));
+            for (Path file : files) {
+                Files.move(file, targetDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("Failed to move converted files to {}: {}", target, e.getMessage());
+        }
+    }
+
+    private static String hotelId(Path file) {
+        return file.getFileName().toString().split("-")[0];
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.freshcells.converter;
+
+import io.swagger.v3.oas.models.OpenAPI;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConverterApplicationStartupTest {
+
+    //generous default so slow CI machines pass, tighten with -Dstartup.budget-ms
+    private static final long STARTUP_BUDGET_MS = Long.getLong("startup.budget-ms", 15000);
+
+    @Test
+    void fastStartProfile_StartsHeadlessAndLazyWithinBudget() {
+        //when
+        long start = System.nanoTime();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ConverterApplication.class)
+                .profiles("fast-start")
+                .properties("server.port=0")
+                .run()) {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            //then
+            assertTrue(context.getBeansOfType(OpenAPI.class).isEmpty());
+            assertFalse(context.getBeanFactory().containsSingleton("hotelLookupService"));
+            assertTrue(elapsedMs < STARTUP_BUDGET_MS,
+                    "Startup took " + elapsedMs + " ms, budget is " + STARTUP_BUDGET_MS + " ms");
+        }
+    }
+}
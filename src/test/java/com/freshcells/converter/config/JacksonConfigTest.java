@@ -0,0 +1,117 @@
+package com.freshcells.converter.config;
+
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.freshcells.converter.enums.XmlParserBackend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.util.ResourceUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JacksonConfigTest {
+
+    private final JacksonConfig jacksonConfig = new JacksonConfig();
+
+    @ParameterizedTest
+    @EnumSource(XmlParserBackend.class)
+    void xmlMapper_ParsesFixturesSameAsWoodstox(XmlParserBackend parser) throws IOException {
+        //given
+        XmlMapper reference = jacksonConfig.xmlMapper(XmlParserBackend.WOODSTOX);
+        XmlMapper xmlMapper = jacksonConfig.xmlMapper(parser);
+
+        for (Map.Entry<String, byte[]> fixture : xmlFixtures().entrySet()) {
+            //when
+            Map<?, ?> expected = reference.readValue(fixture.getValue(), Map.class);
+            Map<?, ?> actual = xmlMapper.readValue(new ByteArrayInputStream(fixture.getValue()), Map.class);
+
+            //then
+            assertEquals(expected, actual, parser + " differs on " + fixture.getKey());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlParserBackend.class)
+    void xmlMapper_DecodesIsoLatin1Document(XmlParserBackend parser) throws IOException {
+        //given
+        byte[] xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\" ?><result><name>Türkische Ägäis</name></result>"
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        //when
+        Map<?, ?> content = jacksonConfig.xmlMapper(parser).readValue(new ByteArrayInputStream(xml), Map.class);
+
+        //then
+        assertEquals("Türkische Ägäis", content.get("name"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlParserBackend.class)
+    void xmlMapper_RejectsExternalEntities(XmlParserBackend parser) {
+        //given
+        byte[] xml = ("<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>"
+                + "<a><b>&x;</b></a>").getBytes();
+
+        //when
+        Map<?, ?> content;
+        try {
+            content = jacksonConfig.xmlMapper(parser).readValue(xml, Map.class);
+        } catch (IOException e) {
+            //rejecting the document is fine as well
+            return;
+        }
+
+        //then
+        assertFalse(content.toString().contains("root:"));
+    }
+
+    //mvn test -Dtest=JacksonConfigTest -Dbenchmark=true
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void xmlMapper_Benchmark() throws IOException {
+        Map<String, byte[]> fixtures = xmlFixtures();
+        long totalBytes = fixtures.values().stream().mapToLong(bytes -> bytes.length).sum();
+        int warmupRounds = 200;
+        int measuredRounds = 1000;
+
+        for (XmlParserBackend parser : XmlParserBackend.values()) {
+            XmlMapper xmlMapper = jacksonConfig.xmlMapper(parser);
+            for (int i = 0; i < warmupRounds; i++) {
+                parseAll(xmlMapper, fixtures);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < measuredRounds; i++) {
+                parseAll(xmlMapper, fixtures);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-8s %8.1f MB/s %8.0f files/s%n", parser,
+                    totalBytes * measuredRounds / seconds / (1024 * 1024),
+                    fixtures.size() * measuredRounds / seconds);
+        }
+    }
+
+    private void parseAll(XmlMapper xmlMapper, Map<String, byte[]> fixtures) throws IOException {
+        for (byte[] fixture : fixtures.values()) {
+            xmlMapper.readValue(new ByteArrayInputStream(fixture), Map.class);
+        }
+    }
+
+    private Map<String, byte[]> xmlFixtures() throws IOException {
+        Path dir = ResourceUtils.getFile("classpath:testFiles").toPath();
+        Map<String, byte[]> fixtures = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(".xml")).toList()) {
+                fixtures.put(file.getFileName().toString(), Files.readAllBytes(file));
+            }
+        }
+        return fixtures;
+    }
+}
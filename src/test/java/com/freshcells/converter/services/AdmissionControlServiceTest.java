@@ -0,0 +1,104 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelCapacityExceededException;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdmissionControlServiceTest {
+
+    private static final long BUDGET_BYTES = 4L * 1024 * 1024;
+
+    @Test
+    void admit_WithinBudget_ReservesAndReleasesMemory() {
+        //given
+        AdmissionControlService service = createService(0, 0);
+        int available = service.availableKb();
+
+        //when
+        AdmissionControlService.Permit permit = service.admit(files(256 * 1024));
+
+        //then
+        assertEquals(available - 2048, service.availableKb());
+        permit.close();
+        permit.close();
+        assertEquals(available, service.availableKb());
+    }
+
+    @Test
+    void admit_WhenSaturatedAndQueueFull_ThrowsWithRetryAfter() {
+        //given
+        AdmissionControlService service = createService(0, 10);
+        service.admit(files(512 * 1024));
+
+        //when
+        HotelCapacityExceededException ex = assertThrows(HotelCapacityExceededException.class,
+                () -> service.admit(files(1024)));
+
+        //then
+        assertEquals(7, ex.getRetryAfterSeconds());
+        assertEquals(0, service.queuedRequests());
+    }
+
+    @Test
+    void admit_WhenSaturated_QueuesUntilBudgetIsReleased() throws Exception {
+        //given
+        AdmissionControlService service = createService(1, 10);
+        AdmissionControlService.Permit first = service.admit(files(512 * 1024));
+
+        //when
+        CompletableFuture<AdmissionControlService.Permit> second =
+                CompletableFuture.supplyAsync(() -> service.admit(files(1024)));
+        while (service.queuedRequests() == 0) {
+            Thread.onSpinWait();
+        }
+        first.close();
+
+        //then
+        assertNotNull(second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, service.queuedRequests());
+    }
+
+    @Test
+    void admit_WhenQueueTimeoutExpires_ThrowsCapacityException() {
+        //given
+        AdmissionControlService service = createService(1, 0);
+        service.admit(files(512 * 1024));
+
+        //when & then
+        assertThrows(HotelCapacityExceededException.class, () -> service.admit(files(1024)));
+        assertEquals(0, service.queuedRequests());
+    }
+
+    @Test
+    void estimateCost_NeverExceedsWholeBudget() {
+        //given
+        AdmissionControlService service = createService(0, 0);
+
+        //when
+        int cost = service.estimateCostKb(files(100 * 1024 * 1024));
+
+        //then
+        assertEquals(BUDGET_BYTES / 1024, cost);
+    }
+
+    private AdmissionControlService createService(int maxQueued, int queueTimeoutSeconds) {
+        AppProperties appProperties = mock(AppProperties.class);
+        when(appProperties.admission()).thenReturn(
+                new AppProperties.Admission(BUDGET_BYTES, 0.6, 8, maxQueued, queueTimeoutSeconds, 7));
+        return new AdmissionControlService(appProperties);
+    }
+
+    private List<MultipartFile> files(int size) {
+        return List.of(new MockMultipartFile("files", "1-giata.xml", "application/xml", new byte[size]));
+    }
+}
@@ -0,0 +1,214 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.exceptions.HotelCapacityExceededException;
+import com.freshcells.converter.exceptions.HotelFileProcessingException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.ProcessingResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BatchIdempotencyServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    @TempDir
+    Path tempDir;
+
+    private BatchIdempotencyService batchIdempotencyService;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.idempotency()).thenReturn(new AppProperties.Idempotency(true, 3600, 256, 1));
+        batchIdempotencyService = new BatchIdempotencyService(appProperties);
+    }
+
+    @Test
+    void execute_SameFilesInDifferentOrder_RunsOnce() throws IOException {
+        //given
+        ProcessingResult result = createResult();
+
+        //when
+        ProcessingResult first = batchIdempotencyService.execute("key", "batch",
+                List.of(file("1-giata.xml", "a"), file("1-coah.json", "b")), () -> run(result)).result();
+        ProcessingResult second = batchIdempotencyService.execute("key", "batch",
+                List.of(file("1-coah.json", "b"), file("1-giata.xml", "a")), () -> run(result)).result();
+
+        //then
+        assertSame(first, second);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void execute_WithoutKey_RunsEveryTime() throws IOException {
+        //given
+        ProcessingResult result = createResult();
+
+        //when
+        batchIdempotencyService.execute(null, "batch", List.of(file("1-giata.xml", "a")), () -> run(result));
+        batchIdempotencyService.execute(" ", "batch", List.of(file("1-giata.xml", "a")), () -> run(result));
+
+        //then
+        assertEquals(2, runs.get());
+        assertEquals(0, batchIdempotencyService.size());
+    }
+
+    @Test
+    void execute_ResultWithFailedOrCancelledImages_IsNotRemembered() throws IOException {
+        //given
+        ProcessingResult partial = new ProcessingResult(createResult().jsonFile(), null, tempDir.resolve("images"),
+                LocalDateTime.now(), 1, 3, 1, 2, null);
+        List<MultipartFile> files = List.of(file("1-giata.xml", "a"));
+
+        //when
+        batchIdempotencyService.execute("key", "batch", files, () -> run(partial));
+        batchIdempotencyService.execute("key", "batch", files, () -> run(partial));
+
+        //then
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void execute_RetryOfLongRunningBatch_IsRejectedAfterWaiting() throws Exception {
+        //given
+        ProcessingResult result = createResult();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            executor.submit(() -> batchIdempotencyService.execute("key", "batch", List.of(file("1-giata.xml", "a")), () -> {
+                started.countDown();
+                awaitQuietly(release);
+                return run(result);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            //when & then
+            HotelCapacityExceededException e = assertThrows(HotelCapacityExceededException.class,
+                    () -> batchIdempotencyService.execute("key", "batch", List.of(file("1-giata.xml", "a")), () -> run(result)));
+            assertTrue(e.getRetryAfterSeconds() > 0);
+            assertEquals(0, runs.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_RetryDuringRun_AttachesToRunningBatch() throws Exception {
+        //given
+        ProcessingResult result = createResult();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            //when
+            Future<BatchIdempotencyService.Execution> original = executor.submit(() ->
+                    batchIdempotencyService.execute("retry-key", "original", List.of(file("1-giata.xml", "a")), () -> {
+                        started.countDown();
+                        awaitQuietly(release);
+                        return run(result);
+                    }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<BatchIdempotencyService.Execution> retry = executor.submit(() ->
+                    batchIdempotencyService.execute("retry-key", "retry", List.of(file("1-giata.xml", "a")),
+                            () -> run(result)));
+            release.countDown();
+
+            //then
+            assertSame(original.get(5, TimeUnit.SECONDS).result(), retry.get(5, TimeUnit.SECONDS).result());
+            assertEquals("original", retry.get().batchId());
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_FailedBatch_IsNotRemembered() throws IOException {
+        //given
+        ProcessingResult result = createResult();
+        List<MultipartFile> files = List.of(file("1-giata.xml", "a"));
+
+        //when
+        assertThrows(HotelFileProcessingException.class, () -> batchIdempotencyService.execute("key", "batch", files, () -> {
+            throw new HotelFileProcessingException("Failed to complete processing", new IOException());
+        }));
+        ProcessingResult retried = batchIdempotencyService.execute("key", "batch", files, () -> run(result)).result();
+
+        //then
+        assertSame(result, retried);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void execute_KeyReusedForOtherFiles_ThrowsException() throws IOException {
+        //given
+        ProcessingResult result = createResult();
+        batchIdempotencyService.execute("key", "batch", List.of(file("1-giata.xml", "a")), () -> run(result));
+        List<MultipartFile> otherFiles = List.of(file("2-giata.xml", "a"));
+
+        //when & then
+        assertThrows(HotelValidationException.class,
+                () -> batchIdempotencyService.execute("key", "batch", otherFiles, () -> run(result)));
+    }
+
+    @Test
+    void execute_OutputRemoved_RunsAgain() throws IOException {
+        //given
+        ProcessingResult result = createResult();
+        List<MultipartFile> files = List.of(file("1-giata.xml", "a"));
+        batchIdempotencyService.execute("key", "batch", files, () -> run(result));
+        Files.delete(result.jsonFile());
+
+        //when
+        batchIdempotencyService.execute("key", "batch", files, () -> run(result));
+
+        //then
+        assertEquals(2, runs.get());
+    }
+
+    private ProcessingResult run(ProcessingResult result) {
+        runs.incrementAndGet();
+        return result;
+    }
+
+    private ProcessingResult createResult() throws IOException {
+        Path jsonFile = Files.writeString(tempDir.resolve("hotels.json"), "{}");
+        return new ProcessingResult(jsonFile, null, tempDir.resolve("images"), LocalDateTime.now(), 1, 0, 0, 0, null);
+    }
+
+    private MockMultipartFile file(String name, String content) {
+        return new MockMultipartFile("files", name, "application/xml", content.getBytes());
+    }
+
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.model.BatchDiagnostics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchMetricsTest {
+
+    @Test
+    void snapshot_SummarizesDownloadLatencies() {
+        //given
+        BatchMetrics metrics = new BatchMetrics();
+        for (int i = 0; i < 100; i++) {
+            metrics.downloadStarted();
+        }
+        for (int i = 1; i <= 100; i++) {
+            metrics.downloadFinished(TimeUnit.MILLISECONDS.toNanos(i * 10L));
+        }
+
+        //when
+        BatchDiagnostics.LatencySummary latency = metrics.snapshot(0).downloadLatency();
+
+        //then
+        assertEquals(100, latency.count());
+        assertEquals(1000, latency.maxMillis());
+        //500ms falls into the 256..511 bucket, 900ms and 990ms into 512..1023 capped by the max
+        assertEquals(511, latency.p50Millis());
+        assertEquals(1000, latency.p90Millis());
+        assertEquals(1000, latency.p99Millis());
+    }
+
+    @Test
+    void snapshot_CountsPeaksAndUniqueUrls() {
+        //given
+        BatchMetrics metrics = new BatchMetrics();
+        metrics.imageUrlsFound(Set.of("a.jpg", "b.jpg"));
+        metrics.imageUrlsFound(Set.of("b.jpg", "c.jpg"));
+        metrics.downloadStarted();
+        metrics.downloadStarted();
+        metrics.downloadFinished(0);
+        metrics.downloadStarted();
+        metrics.downloadCancelled();
+        metrics.downloadStarted();
+        metrics.derivativeQueueDepth(3);
+        metrics.derivativeQueueDepth(1);
+        metrics.fileParsed("123-giata.xml", 2048, TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.serialized(TimeUnit.MILLISECONDS.toNanos(12), 4096);
+
+        //when
+        BatchDiagnostics diagnostics = metrics.snapshot(1);
+
+        //then
+        assertEquals(4, diagnostics.imageUrlsFound());
+        assertEquals(3, diagnostics.imageUrlsUnique());
+        assertEquals(2, diagnostics.peakDownloadsInFlight());
+        //cancelled downloads stay out of the latency histogram
+        assertEquals(1, diagnostics.downloadLatency().count());
+        assertEquals(3, diagnostics.peakDerivativeQueue());
+        assertEquals(new BatchDiagnostics.FileDiagnostics("123-giata.xml", 2048, 4000), diagnostics.files().get(0));
+        assertEquals(12, diagnostics.serializationMillis());
+        assertEquals(4096, diagnostics.outputBytes());
+        assertEquals(1, diagnostics.hotels());
+    }
+}
@@ -0,0 +1,189 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.ProgressEventType;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.ProgressEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BatchProgressServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    private final List<RecordingEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final CountDownLatch slowClient = new CountDownLatch(1);
+    private volatile boolean blockSends;
+    private BatchProgressService batchProgressService;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.progress()).thenReturn(new AppProperties.Progress(4, 60, 8));
+        batchProgressService = new BatchProgressService(appProperties) {
+            @Override
+            SseEmitter createEmitter(long timeoutMillis) {
+                RecordingEmitter emitter = new RecordingEmitter();
+                emitters.add(emitter);
+                return emitter;
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowClient.countDown();
+        batchProgressService.shutdown();
+    }
+
+    @Test
+    void publish_UpdatesCountersOfBatch() {
+        //when
+        batchProgressService.publish("batch", ProgressEventType.STARTED, null);
+        batchProgressService.publish("batch", ProgressEventType.FILE_PARSED, "1-giata.xml");
+        batchProgressService.publish("batch", ProgressEventType.IMAGE_QUEUED, "a.jpg");
+        batchProgressService.publish("batch", ProgressEventType.IMAGE_QUEUED, "b.jpg");
+        batchProgressService.publish("batch", ProgressEventType.IMAGE_FAILED, "b.jpg");
+
+        //then
+        ProgressEvent latest = batchProgressService.latest("batch").orElseThrow();
+        assertEquals(ProgressEventType.IMAGE_FAILED, latest.type());
+        assertEquals(1, latest.filesParsed());
+        assertEquals(2, latest.imagesQueued());
+        assertEquals(1, latest.imagesFailed());
+        assertEquals(List.of(latest), batchProgressService.activeBatches());
+    }
+
+    @Test
+    void publish_TerminalEvent_RemovesBatchFromActive() {
+        //when
+        batchProgressService.publish("batch", ProgressEventType.STARTED, null);
+        batchProgressService.publish("batch", ProgressEventType.COMPLETED, null);
+
+        //then
+        assertTrue(batchProgressService.activeBatches().isEmpty());
+        assertEquals(ProgressEventType.COMPLETED, batchProgressService.latest("batch").orElseThrow().type());
+    }
+
+    @Test
+    void subscribe_ReceivesLatestStateAndFollowingEventsUntilCompleted() throws InterruptedException {
+        //given
+        batchProgressService.publish("batch", ProgressEventType.STARTED, null);
+        batchProgressService.publish("batch", ProgressEventType.FILE_PARSED, "1-giata.xml");
+
+        //when
+        batchProgressService.subscribe("batch");
+        batchProgressService.publish("batch", ProgressEventType.HOTEL_MERGED, "1");
+        batchProgressService.publish("batch", ProgressEventType.COMPLETED, null);
+
+        //then
+        RecordingEmitter emitter = emitters.get(0);
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(
+                List.of(ProgressEventType.FILE_PARSED, ProgressEventType.HOTEL_MERGED, ProgressEventType.COMPLETED),
+                emitter.events.stream().map(ProgressEvent::type).toList());
+    }
+
+    @Test
+    void subscribe_FinishedBatch_GetsFinalEventOnly() throws InterruptedException {
+        //given
+        batchProgressService.publish("batch", ProgressEventType.FAILED, "Failed to complete processing");
+
+        //when
+        batchProgressService.subscribe("batch");
+
+        //then
+        RecordingEmitter emitter = emitters.get(0);
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(ProgressEventType.FAILED), emitter.events.stream().map(ProgressEvent::type).toList());
+    }
+
+    @Test
+    void subscribe_ReusedBatchId_FollowsNewRun() throws InterruptedException {
+        //given
+        batchProgressService.publish("batch", ProgressEventType.STARTED, null);
+        batchProgressService.publish("batch", ProgressEventType.COMPLETED, null);
+        batchProgressService.publish("batch", ProgressEventType.STARTED, null);
+
+        //when
+        batchProgressService.subscribe("batch");
+        batchProgressService.publish("batch", ProgressEventType.FILE_PARSED, "1-giata.xml");
+        batchProgressService.publish("batch", ProgressEventType.COMPLETED, null);
+
+        //then
+        RecordingEmitter emitter = emitters.get(0);
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(
+                List.of(ProgressEventType.STARTED, ProgressEventType.FILE_PARSED, ProgressEventType.COMPLETED),
+                emitter.events.stream().map(ProgressEvent::type).toList());
+    }
+
+    @Test
+    void publish_SlowSubscriber_IsDroppedWithoutBlockingPipeline() throws InterruptedException {
+        //given
+        blockSends = true;
+        batchProgressService.subscribe("batch");
+
+        //when
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            batchProgressService.publish("batch", ProgressEventType.IMAGE_QUEUED, "image" + i);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        slowClient.countDown();
+
+        //then
+        RecordingEmitter emitter = emitters.get(0);
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(elapsedMillis < 1000);
+        assertTrue(emitter.events.size() < 100);
+        assertEquals(100, batchProgressService.latest("batch").orElseThrow().imagesQueued());
+    }
+
+    @Test
+    void subscribe_InvalidBatchId_ThrowsException() {
+        //when & then
+        assertThrows(HotelValidationException.class, () -> batchProgressService.subscribe("../etc"));
+    }
+
+    private class RecordingEmitter extends SseEmitter {
+        private final List<ProgressEvent> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (blockSends) {
+                try {
+                    slowClient.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            builder.build().stream()
+                    .map(DataWithMediaType::getData)
+                    .filter(ProgressEvent.class::isInstance)
+                    .map(ProgressEvent.class::cast)
+                    .forEach(events::add);
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
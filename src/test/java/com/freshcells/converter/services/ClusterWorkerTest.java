@@ -0,0 +1,179 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.DownloadOutcome;
+import com.freshcells.converter.enums.ProgressEventType;
+import com.freshcells.converter.enums.XmlParserBackend;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.ResourceUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterWorkerTest {
+
+    @Mock
+    private ParseCacheService parseCacheService;
+
+    @Mock
+    private FieldProjection fieldProjection;
+
+    @Mock
+    private FileSystemService fileSystemService;
+
+    @Mock
+    private HotelStateStore hotelStateStore;
+
+    @Mock
+    private ImageDedupService imageDedupService;
+
+    @Mock
+    private BatchProgressService batchProgressService;
+
+    private final JacksonConfig jacksonConfig = new JacksonConfig();
+    private final ObjectMapper objectMapper = jacksonConfig.objectMapper();
+    private final HotelJsonWriter hotelJsonWriter = new HotelJsonWriter(objectMapper);
+    private FileProcessingService fileProcessingService;
+    private HotelConverterService hotelConverterService;
+
+    private static final List<String> FEED_FILES = List.of(
+            "162838-coah.xml", "162838-giata.xml", "3956-coah.xml", "3956-giata.xml",
+            "411144-giata.xml", "594608-coah.json");
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        fileProcessingService = new FileProcessingService(objectMapper,
+                jacksonConfig.xmlMapper(XmlParserBackend.WOODSTOX), parseCacheService, fieldProjection);
+        hotelConverterService = new HotelConverterService(fileProcessingService, fileSystemService,
+                hotelStateStore, imageDedupService, batchProgressService);
+        when(fileSystemService.downloadDeadline()).thenReturn(Instant.now().plusSeconds(60));
+        when(fileSystemService.downloadImage(anyString(), anyString(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DownloadOutcome.DOWNLOADED));
+    }
+
+    @Test
+    void runOnce_InstancesSplitGroupsAndMergeSameOutputAsSingleInstance() throws Exception {
+        //given
+        Path shared = copyFeed(tempDir.resolve("shared"));
+        Path single = copyFeed(tempDir.resolve("single"));
+        List<ClusterWorker> workers = List.of(worker(shared, "a"), worker(shared, "b"), worker(shared, "c"));
+
+        //when
+        int processed = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(workers.size())) {
+            List<Future<ClusterWorker.RunSummary>> runs = workers.stream()
+                    .map(worker -> executor.submit(worker::runOnce))
+                    .toList();
+            for (Future<ClusterWorker.RunSummary> run : runs) {
+                processed += run.get().processed();
+            }
+        }
+        //the instance finishing last may have seen a group still leased by another one
+        workers.get(0).runOnce();
+        ClusterWorker.RunSummary alone = worker(single, "single").runOnce();
+
+        //then
+        assertEquals(4, processed);
+        assertEquals(new ClusterWorker.RunSummary(4, 4, true), alone);
+        byte[] merged = Files.readAllBytes(shared.resolve(".cluster/output/hotels.json"));
+        assertArrayEquals(Files.readAllBytes(single.resolve(".cluster/output/hotels.json")), merged);
+        Map<String, Object> hotels = objectMapper.readValue(merged, new TypeReference<>() {});
+        assertEquals(List.of("162838", "3956", "411144", "594608"), List.copyOf(hotels.keySet()));
+    }
+
+    @Test
+    void runOnce_ReprocessesOnlyChangedGroups() throws Exception {
+        //given
+        Path shared = copyFeed(tempDir.resolve("shared"));
+        ClusterWorker worker = worker(shared, "a");
+        worker.runOnce();
+
+        //when
+        ClusterWorker.RunSummary unchanged = worker.runOnce();
+        Path changed = shared.resolve("3956-giata.xml");
+        Files.setLastModifiedTime(changed, FileTime.from(Instant.now().plusSeconds(5)));
+        ClusterWorker.RunSummary afterChange = worker.runOnce();
+
+        //then
+        assertEquals(new ClusterWorker.RunSummary(4, 0, false), unchanged);
+        assertEquals(new ClusterWorker.RunSummary(4, 1, true), afterChange);
+    }
+
+    @Test
+    void runOnce_DownloadsImagesOfGroupsThroughBatches() throws Exception {
+        //given
+        Path shared = copyFeed(tempDir.resolve("shared"));
+        Path imagesDir = shared.resolve(".cluster/output/images");
+
+        //when
+        worker(shared, "a").runOnce();
+
+        //then
+        verify(fileSystemService, atLeastOnce()).downloadImage(anyString(), anyString(), eq(imagesDir), any(), any());
+        verify(imageDedupService, times(4)).persist();
+        verify(batchProgressService, times(4)).publish(anyString(), eq(ProgressEventType.COMPLETED), isNull());
+    }
+
+    @Test
+    void runOnce_SkipsGroupLeasedByLiveInstance() throws Exception {
+        //given
+        Path shared = copyFeed(tempDir.resolve("shared"));
+        Files.createDirectories(shared.resolve(".cluster/leases"));
+        FileLease held = FileLease.tryAcquire(shared.resolve(".cluster/leases/3956.lease"), "b",
+                Duration.ofSeconds(60)).orElseThrow();
+
+        //when
+        ClusterWorker.RunSummary summary = worker(shared, "a").runOnce();
+
+        //then
+        assertEquals(new ClusterWorker.RunSummary(4, 3, false), summary);
+        assertFalse(Files.exists(shared.resolve(".cluster/output/hotels.json")));
+        held.release();
+    }
+
+    private ClusterWorker worker(Path inputDir, String instanceId) {
+        AppProperties appProperties = mock(AppProperties.class);
+        when(appProperties.cluster()).thenReturn(
+                new AppProperties.Cluster(true, inputDir.toString(), instanceId, 2, 60, 15, 10));
+        when(appProperties.output()).thenReturn(new AppProperties.Output(1));
+        return new ClusterWorker(appProperties, fileProcessingService, hotelConverterService, hotelJsonWriter);
+    }
+
+    private Path copyFeed(Path dir) throws Exception {
+        Files.createDirectories(dir);
+        for (String filename : FEED_FILES) {
+            Files.copy(ResourceUtils.getFile("classpath:testFiles/" + filename).toPath(), dir.resolve(filename));
+        }
+        //not a feed file, never claimed
+        Files.writeString(dir.resolve("notes.txt"), "ignored");
+        return dir;
+    }
+}
@@ -0,0 +1,76 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.CompactStorage;
+import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.model.HotelData;
+import com.freshcells.converter.model.RawJson;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactHotelStoreTest {
+
+    private final HotelJsonWriter hotelJsonWriter = new HotelJsonWriter(new JacksonConfig().objectMapper());
+
+    @ParameterizedTest
+    @EnumSource(CompactStorage.class)
+    void fragment_WritesSameDocumentAsParsedHotels(CompactStorage storage) throws Exception {
+        //given
+        Map<String, Object> giata = new LinkedHashMap<>();
+        giata.put("name", "Hôtel \"Zur Post\"");
+        giata.put("stars", 4);
+        giata.put("rating", 8.7);
+        giata.put("open", true);
+        giata.put("fax", null);
+        giata.put("texts", new RawJson("{\"paragraph\":[\"Strand\",\"Pool\"]}".getBytes(), Set.of()));
+        giata.put("image", List.of(Map.of("url", "https://example.com/1.jpg"), Map.of()));
+        Map<String, Object> coa = new LinkedHashMap<>();
+        coa.put("facilities", List.of("pool", List.of(), Map.of("spa", "x".repeat(300))));
+        Map<String, HotelData> hotels = new TreeMap<>(Map.of(
+                "1", new HotelData(giata, coa),
+                "2", HotelData.empty().withGiata(Map.of("name", "Only GIATA")),
+                "3", HotelData.empty().withCoa(Map.of())
+        ));
+
+        //when
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        //chunks smaller than some documents, so they roll over and large documents get their own
+        try (CompactHotelStore store = new CompactHotelStore(hotelJsonWriter, storage, 64)) {
+            store.put("1", FileType.GIATA, giata);
+            store.put("1", FileType.COA, coa);
+            store.put("2", FileType.GIATA, Map.of("name", "Only GIATA"));
+            store.put("3", FileType.COA, Map.of());
+            hotelJsonWriter.write(store.hotelIds(), store::fragment, compact);
+
+            //then
+            assertEquals(3, store.size());
+            assertTrue(store.storedBytes() > 0);
+        }
+        ByteArrayOutputStream parsed = new ByteArrayOutputStream();
+        hotelJsonWriter.write(hotels.keySet(), hotelId -> hotelJsonWriter.encode(hotels.get(hotelId)), parsed);
+        assertEquals(parsed.toString(), compact.toString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompactStorage.class)
+    void put_ReplacesPartOfSameType(CompactStorage storage) throws Exception {
+        //given
+        try (CompactHotelStore store = new CompactHotelStore(hotelJsonWriter, storage, 1024)) {
+            store.put("1", FileType.GIATA, Map.of("name", "Old"));
+            store.put("1", FileType.COA, Map.of("stars", "4"));
+
+            //when
+            store.put("1", FileType.GIATA, Map.of("name", "New"));
+
+            //then
+            assertArrayEquals(
+                    hotelJsonWriter.encode(new HotelData(Map.of("name", "New"), Map.of("stars", "4"))),
+                    store.fragment("1"));
+        }
+    }
+}
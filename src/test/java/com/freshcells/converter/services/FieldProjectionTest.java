@@ -0,0 +1,230 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.XmlParserBackend;
+import com.freshcells.converter.model.RawJson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.ResourceUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FieldProjectionTest {
+
+    @Mock
+    private AppProperties appProperties;
+    @Mock
+    private ParseCacheService parseCacheService;
+
+    private final JacksonConfig jacksonConfig = new JacksonConfig();
+    private final ObjectMapper jsonMapper = jacksonConfig.objectMapper();
+
+    private static final List<String> FIXTURES = List.of(
+            "162838-giata.xml", "162838-coah.xml", "3956-giata.xml", "3956-coah.xml", "411144-giata.xml", "594608-coah.json");
+
+    @Test
+    void processFile_RulesMatchingNothing_GiveSameResultAsFullParse() throws IOException {
+        //given
+        FileProcessingService projected = createService(
+                rules(List.of(), List.of("no/such/path")), rules(List.of(), List.of("no/such/path")), true);
+        FileProcessingService full = createService(rules(List.of(), List.of()), rules(List.of(), List.of()), true);
+
+        for (String fixture : FIXTURES) {
+            //when
+            Map<String, Object> expected = full.processFile(fixture(fixture));
+            Map<String, Object> actual = projected.processFile(fixture(fixture));
+
+            //then
+            assertEquals(expected, actual, fixture);
+        }
+    }
+
+    @Test
+    void processFile_ExcludedSubtree_IsDroppedEverywhereElseUnchanged() throws IOException {
+        //given
+        FileProcessingService projected = createService(
+                rules(List.of(), List.of("**/Text")), rules(List.of(), List.of()), false);
+        FileProcessingService full = createService(rules(List.of(), List.of()), rules(List.of(), List.of()), false);
+
+        //when
+        Map<String, Object> expected = full.processFile(fixture("162838-giata.xml"));
+        Map<String, Object> actual = projected.processFile(fixture("162838-giata.xml"));
+
+        //then
+        assertTrue(containsField(expected, "Text"));
+        assertFalse(containsField(actual, "Text"));
+        assertEquals(withoutField(expected, "Text"), actual);
+    }
+
+    @Test
+    void processFile_ExcludedImages_StillExposeImageUrls() throws IOException {
+        //given
+        FileProcessingService projected = createService(
+                rules(List.of(), List.of()), rules(List.of(), List.of("**/images", "**/texts")), true);
+        FileProcessingService full = createService(rules(List.of(), List.of()), rules(List.of(), List.of()), true);
+
+        for (String fixture : List.of("162838-coah.xml", "594608-coah.json")) {
+            //when
+            Map<String, Object> expected = full.processFile(fixture(fixture));
+            Map<String, Object> actual = projected.processFile(fixture(fixture));
+
+            //then
+            assertFalse(imageUrls(expected, new TreeSet<>()).isEmpty());
+            assertEquals(imageUrls(expected, new TreeSet<>()), imageUrls(actual, new TreeSet<>()), fixture);
+            assertFalse(containsField(actual, "texts"));
+        }
+    }
+
+    @Test
+    void processFile_IncludeRules_KeepOnlyIncludedPaths() throws IOException {
+        //given
+        FileProcessingService projected = createService(
+                rules(List.of(), List.of()), rules(List.of("content/hotel/name", "content/hotel/address/city"), List.of()), false);
+
+        //when
+        Map<String, Object> actual = projected.processFile(fixture("594608-coah.json"));
+
+        //then
+        Map<?, ?> hotel = (Map<?, ?>) ((Map<?, ?>) actual.get("content")).get("hotel");
+        assertEquals(Set.of("name", "address"), hotel.keySet());
+        assertEquals(Set.of("city"), ((Map<?, ?>) hotel.get("address")).keySet());
+    }
+
+    @Test
+    void processFile_PassThroughPaths_WriteSameDocumentAsFullParse() throws IOException {
+        //given
+        FileProcessingService passing = createService(passThrough("**/Text"), passThrough("**/texts", "**/images"), true);
+        FileProcessingService full = createService(rules(List.of(), List.of()), rules(List.of(), List.of()), true);
+
+        for (String fixture : FIXTURES) {
+            //when
+            Map<String, Object> expected = full.processFile(fixture(fixture));
+            Map<String, Object> actual = passing.processFile(fixture(fixture));
+
+            //then
+            assertTrue(containsRawJson(actual), fixture);
+            assertEquals(roundTrip(expected), roundTrip(actual), fixture);
+            assertEquals(imageUrls(expected, new TreeSet<>()), imageUrls(actual, new TreeSet<>()), fixture);
+        }
+    }
+
+    @Test
+    void processFile_PassThroughSubtree_IsCapturedAsCompactJson() throws IOException {
+        //given
+        FileProcessingService passing = createService(rules(List.of(), List.of()), passThrough("content/hotel/address"), false);
+        FileProcessingService full = createService(rules(List.of(), List.of()), rules(List.of(), List.of()), false);
+
+        //when
+        Object expected = hotel(full.processFile(fixture("594608-coah.json"))).get("address");
+        Object actual = hotel(passing.processFile(fixture("594608-coah.json"))).get("address");
+
+        //then
+        RawJson raw = assertInstanceOf(RawJson.class, actual);
+        assertFalse(raw.toString().contains("\n"));
+        assertEquals(expected, jsonMapper.readValue(raw.json(), Object.class));
+    }
+
+    @Test
+    void matches_SupportsWildcards() {
+        //given
+        String[] path = {"hotel", "texts", "paragraph"};
+
+        //when & then
+        assertTrue(FieldProjection.matches(new String[]{"**", "paragraph"}, 0, path, 0));
+        assertTrue(FieldProjection.matches(new String[]{"hotel", "*", "paragraph"}, 0, path, 0));
+        assertFalse(FieldProjection.matches(new String[]{"hotel", "paragraph"}, 0, path, 0));
+        assertTrue(FieldProjection.matchesBelow(new String[]{"hotel", "texts", "paragraph"}, 0, new String[]{"hotel"}, 0));
+        assertFalse(FieldProjection.matchesBelow(new String[]{"hotel", "name"}, 0, new String[]{"address"}, 0));
+    }
+
+    private FileProcessingService createService(AppProperties.ProjectionRules giata, AppProperties.ProjectionRules coa,
+                                                boolean keepImageUrls) {
+        when(appProperties.projection()).thenReturn(new AppProperties.Projection(giata, coa, keepImageUrls));
+        return new FileProcessingService(jacksonConfig.objectMapper(), jacksonConfig.xmlMapper(XmlParserBackend.WOODSTOX),
+                parseCacheService, new FieldProjection(appProperties));
+    }
+
+    private AppProperties.ProjectionRules rules(List<String> include, List<String> exclude) {
+        return new AppProperties.ProjectionRules(include, exclude, List.of());
+    }
+
+    private AppProperties.ProjectionRules passThrough(String... paths) {
+        return new AppProperties.ProjectionRules(List.of(), List.of(), List.of(paths));
+    }
+
+    private Map<?, ?> hotel(Map<String, Object> content) {
+        return (Map<?, ?>) ((Map<?, ?>) content.get("content")).get("hotel");
+    }
+
+    private Object roundTrip(Object value) throws IOException {
+        return jsonMapper.readValue(jsonMapper.writeValueAsBytes(value), Map.class);
+    }
+
+    private boolean containsRawJson(Object value) {
+        if (value instanceof RawJson) return true;
+        if (value instanceof Map<?, ?> map) return map.values().stream().anyMatch(this::containsRawJson);
+        if (value instanceof Collection<?> collection) return collection.stream().anyMatch(this::containsRawJson);
+        return false;
+    }
+
+    private MockMultipartFile fixture(String filename) throws IOException {
+        byte[] content = Files.readAllBytes(ResourceUtils.getFile("classpath:testFiles/" + filename).toPath());
+        return new MockMultipartFile("files", filename, "application/octet-stream", content);
+    }
+
+    private boolean containsField(Object value, String field) {
+        if (value instanceof Map<?, ?> map) {
+            return map.containsKey(field) || map.values().stream().anyMatch(child -> containsField(child, field));
+        }
+        if (value instanceof Collection<?> collection) {
+            return collection.stream().anyMatch(child -> containsField(child, field));
+        }
+        return false;
+    }
+
+    private Object withoutField(Object value, String field) {
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((key, child) -> {
+                if (!field.equals(key)) copy.put(key, withoutField(child, field));
+            });
+            return copy;
+        }
+        if (value instanceof Collection<?> collection) {
+            return collection.stream().map(child -> withoutField(child, field)).toList();
+        }
+        return value;
+    }
+
+    //same rules as HotelConverterService.extractAllImageUrls
+    private Set<String> imageUrls(Object value, Set<String> urls) {
+        if (value instanceof Map<?, ?> map) {
+            if (map.get("image") instanceof List<?> images) {
+                images.stream()
+                        .filter(Map.class::isInstance)
+                        .map(image -> ((Map<?, ?>) image).get("url"))
+                        .filter(String.class::isInstance)
+                        .forEach(url -> urls.add((String) url));
+            }
+            map.values().forEach(child -> imageUrls(child, urls));
+        } else if (value instanceof Collection<?> collection) {
+            collection.forEach(child -> imageUrls(child, urls));
+        } else if (value instanceof RawJson raw) {
+            urls.addAll(raw.imageUrls());
+        } else if (value instanceof String text && HotelConverterService.IMAGE_URL_PATTERN.matcher(text).matches()) {
+            urls.add(text);
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,73 @@
+package com.freshcells.converter.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileLeaseTest {
+
+    private static final Duration STALE_AFTER = Duration.ofSeconds(60);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void tryAcquire_IsExclusiveUntilReleased() throws Exception {
+        //given
+        Path file = tempDir.resolve("123.lease");
+        FileLease first = FileLease.tryAcquire(file, "instance-a", STALE_AFTER).orElseThrow();
+
+        //when
+        Optional<FileLease> second = FileLease.tryAcquire(file, "instance-b", STALE_AFTER);
+        first.release();
+        Optional<FileLease> afterRelease = FileLease.tryAcquire(file, "instance-b", STALE_AFTER);
+
+        //then
+        assertTrue(second.isEmpty());
+        assertTrue(afterRelease.isPresent());
+    }
+
+    @Test
+    void tryAcquire_TakesOverStaleLease() throws Exception {
+        //given
+        Path file = tempDir.resolve("123.lease");
+        FileLease stale = FileLease.tryAcquire(file, "instance-a", STALE_AFTER).orElseThrow();
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+
+        //when
+        FileLease takeover = FileLease.tryAcquire(file, "instance-b", STALE_AFTER).orElseThrow();
+
+        //then
+        assertFalse(stale.renew());
+        assertTrue(takeover.renew());
+        //releasing the lost lease doesn't remove the new holder's file
+        stale.release();
+        assertTrue(Files.exists(file));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void renew_KeepsLeaseFromGoingStale() throws Exception {
+        //given
+        Path file = tempDir.resolve("123.lease");
+        FileLease lease = FileLease.tryAcquire(file, "instance-a", STALE_AFTER).orElseThrow();
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+
+        //when
+        boolean renewed = lease.renew();
+
+        //then
+        assertTrue(renewed);
+        assertTrue(FileLease.tryAcquire(file, "instance-b", STALE_AFTER).isEmpty());
+    }
+}
@@ -2,6 +2,7 @@ package com.freshcells.converter.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.freshcells.converter.enums.FileExtension;
 import com.freshcells.converter.exceptions.HotelFileProcessingException;
 import com.freshcells.converter.exceptions.HotelValidationException;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,11 +15,12 @@ import org.springframework.mock.web.MockMultipartFile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 
 @ExtendWith(MockitoExtension.class)
@@ -30,11 +32,17 @@ class FileProcessingServiceTest {
     @Mock
     private XmlMapper xmlMapper;
 
+    @Mock
+    private ParseCacheService parseCacheService;
+
+    @Mock
+    private FieldProjection fieldProjection;
+
     private FileProcessingService fileProcessingService;
 
     @BeforeEach
     void setUp() {
-        fileProcessingService = new FileProcessingService(jsonMapper, xmlMapper);
+        fileProcessingService = new FileProcessingService(jsonMapper, xmlMapper, parseCacheService, fieldProjection);
     }
 
     @Test
@@ -123,4 +131,48 @@ class FileProcessingServiceTest {
         assertThrows(HotelFileProcessingException.class,
                 () -> fileProcessingService.processFile(jsonFile));
     }
+
+    @Test
+    void processFile_WithCachedContent_SkipsParsing() throws IOException {
+        //given
+        Map<String, Object> cachedResult = Map.of("key", "cached");
+        MockMultipartFile xmlFile = new MockMultipartFile(
+                "file",
+                "test-giata.xml",
+                "application/xml",
+                "<test>content</test>".getBytes()
+        );
+        when(parseCacheService.isEnabled()).thenReturn(true);
+        when(parseCacheService.get(ParseCacheService.key(xmlFile.getBytes(), FileExtension.XML)))
+                .thenReturn(Optional.of(cachedResult));
+
+        //when
+        Map<String, Object> result = fileProcessingService.processFile(xmlFile);
+
+        //then
+        assertEquals(cachedResult, result);
+        verify(xmlMapper, never()).readValue(any(InputStream.class), eq(Map.class));
+    }
+
+    @Test
+    void processFile_WithCacheMiss_ParsesAndCaches() throws IOException {
+        //given
+        Map<String, Object> expectedResult = Map.of("key", "value");
+        MockMultipartFile jsonFile = new MockMultipartFile(
+                "file",
+                "test-coah.json",
+                "application/json",
+                "{\"test\":\"content\"}".getBytes()
+        );
+        when(parseCacheService.isEnabled()).thenReturn(true);
+        when(jsonMapper.readValue(any(InputStream.class), eq(Map.class)))
+                .thenReturn(expectedResult);
+
+        //when
+        Map<String, Object> result = fileProcessingService.processFile(jsonFile);
+
+        //then
+        assertEquals(expectedResult, result);
+        verify(parseCacheService).put(ParseCacheService.key(jsonFile.getBytes(), FileExtension.JSON), expectedResult);
+    }
 }
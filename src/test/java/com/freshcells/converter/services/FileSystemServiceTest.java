@@ -1,7 +1,13 @@
 package com.freshcells.converter.services;
 
 import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.DownloadOutcome;
+import com.freshcells.converter.enums.StageOverflow;
 import com.freshcells.converter.exceptions.HotelFileSystemException;
+import com.freshcells.converter.model.HotelData;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,16 +16,28 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class FileSystemServiceTest {
@@ -27,15 +45,33 @@ class FileSystemServiceTest {
     @Mock
     private AppProperties appProperties;
 
+    @Mock
+    private ImageDerivativeService imageDerivativeService;
+
+    @Mock
+    private ImageDedupService imageDedupService;
+
     private FileSystemService fileSystemService;
 
+    private PipelineService pipelineService;
+
     @TempDir
     Path tempDir;
 
     @BeforeEach
     void setUp() {
         when(appProperties.httpClientTimeoutSeconds()).thenReturn(30);
-        fileSystemService = new FileSystemService(appProperties);
+        AppProperties.Stage stage = new AppProperties.Stage(2, 16, StageOverflow.BLOCK);
+        when(appProperties.pipeline()).thenReturn(new AppProperties.Pipeline(stage, stage, stage));
+        pipelineService = new PipelineService(appProperties, imageDerivativeService);
+        fileSystemService = new FileSystemService(appProperties,
+                new HotelJsonWriter(new JacksonConfig().objectMapper()), imageDerivativeService, imageDedupService,
+                pipelineService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipelineService.shutdown();
     }
 
     @Test
@@ -53,6 +89,24 @@ class FileSystemServiceTest {
         assertEquals(tempDir.resolve(expectedDirName), outputPath);
     }
 
+    @Test
+    void getOutputPath_WithSameTimestamp_CreatesSeparateDirectories() {
+        //given
+        LocalDateTime timestamp = LocalDateTime.of(2024, 1, 20, 15, 30, 45);
+        when(appProperties.outputDir()).thenReturn(tempDir.toString());
+
+        //when
+        Path first = fileSystemService.getOutputPath(timestamp);
+        Path second = fileSystemService.getOutputPath(timestamp);
+        Path third = fileSystemService.getOutputPath(timestamp);
+
+        //then
+        assertEquals(tempDir.resolve("20240120_153045"), first);
+        assertEquals(tempDir.resolve("20240120_153045_1"), second);
+        assertEquals(tempDir.resolve("20240120_153045_2"), third);
+        assertTrue(Files.isDirectory(third));
+    }
+
     @Test
     void getOutputPath_ThrowsException_WhenDirectoryCreationFails() throws IOException {
         //given
@@ -91,6 +145,45 @@ class FileSystemServiceTest {
         assertArrayEquals(testData, Files.readAllBytes(jsonFile));
     }
 
+    @Test
+    void saveHotels_WritesDocumentAndIndex() throws IOException {
+        //given
+        Path outputPath = tempDir.resolve("test_output");
+        Files.createDirectories(outputPath);
+        Map<String, HotelData> hotels = Map.of("123", new HotelData(Map.of("name", "Hotel"), Map.of()));
+        when(appProperties.output()).thenReturn(new AppProperties.Output(1));
+
+        //when
+        fileSystemService.saveHotels(hotels, outputPath);
+
+        //then
+        assertTrue(Files.exists(outputPath.resolve("hotels.json")));
+        assertTrue(Files.exists(outputPath.resolve("hotels.index.json")));
+        assertTrue(fileSystemService.findManifest(outputPath).isEmpty());
+    }
+
+    @Test
+    void saveHotels_WithShards_WritesShardsAndManifest() throws IOException {
+        //given
+        Path outputPath = tempDir.resolve("test_output");
+        Files.createDirectories(outputPath);
+        Map<String, HotelData> hotels = Map.of(
+                "1", HotelData.empty(),
+                "2", HotelData.empty(),
+                "3", HotelData.empty()
+        );
+        when(appProperties.output()).thenReturn(new AppProperties.Output(2));
+
+        //when
+        fileSystemService.saveHotels(hotels, outputPath);
+
+        //then
+        assertEquals(Optional.of(outputPath.resolve("manifest.json")), fileSystemService.findManifest(outputPath));
+        assertTrue(Files.exists(outputPath.resolve("hotels-00000.json")));
+        assertTrue(Files.exists(outputPath.resolve("hotels-00001.index.json")));
+        assertFalse(Files.exists(outputPath.resolve("hotels.json")));
+    }
+
     @Test
     void downloadImage_SuccessfullyDownloadsValidImage() {
         //given
@@ -143,4 +236,125 @@ class FileSystemServiceTest {
         //then
         assertFalse(result.get());
     }
+
+    @Test
+    void downloadImage_DeadlineAlreadyPassed_IsCancelledWithoutRequest() {
+        //given
+        BatchMetrics metrics = new BatchMetrics();
+
+        //when
+        DownloadOutcome outcome = fileSystemService.downloadImage("http://localhost:1/a.jpg", "hotel123",
+                tempDir.resolve("images"), Instant.now().minusSeconds(1), metrics).join();
+
+        //then
+        assertEquals(DownloadOutcome.CANCELLED, outcome);
+        assertEquals(0, metrics.snapshot(0).peakDownloadsInFlight());
+    }
+
+    @Test
+    void downloadImage_StalledServer_IsCancelledAtDeadline() throws IOException {
+        //given
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/slow.jpg";
+
+        try {
+            //when
+            long start = System.nanoTime();
+            BatchMetrics metrics = new BatchMetrics();
+            DownloadOutcome outcome = fileSystemService.downloadImage(url, "hotel123", tempDir.resolve("images"),
+                    Instant.now().plusMillis(300), metrics).orTimeout(10, TimeUnit.SECONDS).join();
+
+            //then
+            assertEquals(DownloadOutcome.CANCELLED, outcome);
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+            //the time until the deadline is not a download latency
+            assertEquals(1, metrics.snapshot(0).peakDownloadsInFlight());
+            assertEquals(0, metrics.snapshot(0).downloadLatency().count());
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void downloadImage_NearDuplicate_IsLinkedIntoImagesDir() throws Exception {
+        //given
+        byte[] png = pngBytes();
+        Path stored = Files.write(Files.createDirectories(tempDir.resolve("earlier")).resolve("1_a.png"), png);
+        when(imageDedupService.isEnabled()).thenReturn(true);
+        when(imageDedupService.findOrRegister(anyLong(), eq("hotel123"), any(), any()))
+                .thenReturn(Optional.of(stored));
+        HttpServer server = imageServer(png);
+        Path imagesDir = tempDir.resolve("images");
+
+        try {
+            //when
+            DownloadOutcome outcome = fileSystemService.downloadImage(
+                    "http://localhost:" + server.getAddress().getPort() + "/a.png", "hotel123", imagesDir,
+                    null, new BatchMetrics()).orTimeout(10, TimeUnit.SECONDS).join();
+
+            //then
+            assertEquals(DownloadOutcome.DOWNLOADED, outcome);
+            try (Stream<Path> files = Files.list(imagesDir)) {
+                Path linked = files.findFirst().orElseThrow();
+                assertArrayEquals(png, Files.readAllBytes(linked));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void downloadImage_NewImage_IsWrittenByItsRegistration() throws Exception {
+        //given
+        byte[] png = pngBytes();
+        when(imageDedupService.isEnabled()).thenReturn(true);
+        when(imageDedupService.findOrRegister(anyLong(), eq("hotel123"), any(), any())).thenAnswer(invocation -> {
+            invocation.<ImageDedupService.FileWrite>getArgument(3).write();
+            return Optional.empty();
+        });
+        HttpServer server = imageServer(png);
+        BatchMetrics metrics = new BatchMetrics();
+
+        try {
+            //when
+            DownloadOutcome outcome = fileSystemService.downloadImage(
+                    "http://localhost:" + server.getAddress().getPort() + "/a.png", "hotel123",
+                    tempDir.resolve("images"), null, metrics).orTimeout(10, TimeUnit.SECONDS).join();
+
+            //then
+            assertEquals(DownloadOutcome.DOWNLOADED, outcome);
+            assertEquals(1, metrics.snapshot(0).downloadLatency().count());
+            verify(imageDedupService).findOrRegister(anyLong(), eq("hotel123"), argThat(Files::exists), any());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static byte[] pngBytes() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", png);
+        return png.toByteArray();
+    }
+
+    private static HttpServer imageServer(byte[] image) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, image.length);
+            exchange.getResponseBody().write(image);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
 }
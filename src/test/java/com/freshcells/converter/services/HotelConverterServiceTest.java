@@ -1,7 +1,12 @@
 package com.freshcells.converter.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.CompactStorage;
+import com.freshcells.converter.enums.DownloadOutcome;
+import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.enums.ProgressEventType;
 import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.HotelData;
 import com.freshcells.converter.model.ProcessingResult;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,10 +17,13 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mock.web.MockMultipartFile;
 
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -30,7 +38,11 @@ class HotelConverterServiceTest {
     @Mock
     private FileSystemService fileSystemService;
     @Mock
-    private ObjectMapper objectMapper;
+    private HotelStateStore hotelStateStore;
+    @Mock
+    private ImageDedupService imageDedupService;
+    @Mock
+    private BatchProgressService batchProgressService;
 
     @InjectMocks
     private HotelConverterService hotelConverterService;
@@ -73,10 +85,9 @@ class HotelConverterServiceTest {
         when(fileProcessingService.processFile(giataFile)).thenReturn(giataContent);
         when(fileProcessingService.processFile(coaFile)).thenReturn(coaContent);
 
-        when(fileSystemService.downloadImage(anyString(), anyString(), any(Path.class)))
-                .thenReturn(CompletableFuture.completedFuture(true));
+        when(fileSystemService.downloadImage(anyString(), anyString(), any(Path.class), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DownloadOutcome.DOWNLOADED));
 
-        when(objectMapper.writeValueAsBytes(any())).thenReturn("{}".getBytes());
 
         //when
         ProcessingResult result = hotelConverterService.processFiles(List.of(giataFile, coaFile));
@@ -87,10 +98,43 @@ class HotelConverterServiceTest {
         assertEquals(imagesDir, result.imagesDirectory());
         assertEquals(2, result.processedFiles());
         assertEquals(3, result.downloadedImages());
+        assertEquals(1, result.diagnostics().hotels());
+        assertEquals(2, result.diagnostics().files().size());
+        assertEquals(3, result.diagnostics().imageUrlsUnique());
 
-        verify(fileSystemService).saveJsonResult(any(), eq(outputPath));
+        verify(fileSystemService).saveHotels(any(), eq(outputPath));
         verify(fileSystemService, times(3))
-                .downloadImage(anyString(), eq("123"), any(Path.class));
+                .downloadImage(anyString(), eq("123"), any(Path.class), any(), any());
+    }
+
+    @Test
+    void processFiles_CompactHotels_SavesEncodedHotels() throws Exception {
+        //given
+        Path outputPath = tempDir.resolve("output");
+        MockMultipartFile giataFile = new MockMultipartFile("file", "123-giata.json", "application/json", new byte[0]);
+        MockMultipartFile coaFile = new MockMultipartFile("file", "123-coah.json", "application/json", new byte[0]);
+        CompactHotelStore store = new CompactHotelStore(
+                new HotelJsonWriter(new JacksonConfig().objectMapper()), CompactStorage.HEAP, 1024);
+        when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
+        when(fileSystemService.newCompactStore()).thenReturn(store);
+        when(fileProcessingService.processFile(giataFile)).thenReturn(Map.of("name", "Hotel"));
+        when(fileProcessingService.processFile(coaFile)).thenReturn(Map.of("stars", "4"));
+        doAnswer(invocation -> {
+            assertArrayEquals(new HotelJsonWriter(new JacksonConfig().objectMapper())
+                            .encode(new HotelData(Map.of("name", "Hotel"), Map.of("stars", "4"))),
+                    store.fragment("123"));
+            return null;
+        }).when(fileSystemService).saveCompactHotels(store, outputPath);
+
+        //when
+        ProcessingResult result = hotelConverterService.processFiles(List.of(giataFile, coaFile));
+
+        //then
+        assertEquals(1, result.diagnostics().hotels());
+        verify(fileSystemService).saveCompactHotels(store, outputPath);
+        verify(fileSystemService, never()).saveHotels(any(), any());
+        //released with the batch
+        assertEquals(0, store.size());
     }
 
     @Test
@@ -113,9 +157,8 @@ class HotelConverterServiceTest {
 
         when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
         when(fileProcessingService.processFile(file)).thenReturn(content);
-        when(fileSystemService.downloadImage(anyString(), anyString(), any(Path.class)))
-                .thenReturn(CompletableFuture.completedFuture(false));
-        when(objectMapper.writeValueAsBytes(any())).thenReturn("{}".getBytes());
+        when(fileSystemService.downloadImage(anyString(), anyString(), any(Path.class), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DownloadOutcome.FAILED));
 
         // When
         ProcessingResult result = hotelConverterService.processFiles(List.of(file));
@@ -123,6 +166,44 @@ class HotelConverterServiceTest {
         // Then
         assertEquals(1, result.processedFiles());
         assertEquals(0, result.downloadedImages());
+        assertEquals(2, result.failedImages());
+    }
+
+    @Test
+    void processFiles_DeadlinePassed_CancelsPendingDownloadsAndReturnsPartialResult() {
+        //given
+        Path outputPath = tempDir.resolve("output");
+        MockMultipartFile file = new MockMultipartFile(
+                "file",
+                "123-giata.json",
+                "application/json",
+                "{\"test\": \"data\"}".getBytes()
+        );
+        Map<String, Object> content = new HashMap<>();
+        content.put("image", List.of(
+                Map.of("url", "https://example.com/fast.jpg"),
+                Map.of("url", "https://example.com/slow.jpg")
+        ));
+        CompletableFuture<DownloadOutcome> slow = new CompletableFuture<>();
+
+        when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
+        when(fileSystemService.downloadDeadline()).thenReturn(Instant.now().plusMillis(200));
+        when(fileProcessingService.processFile(file)).thenReturn(content);
+        when(fileSystemService.downloadImage(eq("https://example.com/fast.jpg"), anyString(), any(Path.class), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DownloadOutcome.DOWNLOADED));
+        when(fileSystemService.downloadImage(eq("https://example.com/slow.jpg"), anyString(), any(Path.class), any(), any()))
+                .thenReturn(slow);
+
+        //when
+        ProcessingResult result = hotelConverterService.processFiles(List.of(file));
+
+        //then
+        assertTrue(slow.isCancelled());
+        assertEquals(1, result.downloadedImages());
+        assertEquals(0, result.failedImages());
+        assertEquals(1, result.cancelledImages());
+        verify(fileSystemService).saveHotels(any(), eq(outputPath));
+        verify(batchProgressService).publish(anyString(), eq(ProgressEventType.IMAGE_CANCELLED), eq("https://example.com/slow.jpg"));
     }
 
     @Test
@@ -146,9 +227,7 @@ class HotelConverterServiceTest {
         );
 
         verify(fileProcessingService).processFile(any());
-
-        verify(objectMapper, never()).writeValueAsBytes(any());
-        verify(fileSystemService, never()).saveJsonResult(any(), any());
+        verify(fileSystemService, never()).saveHotels(any(), any());
     }
 
     @Test
@@ -173,9 +252,7 @@ class HotelConverterServiceTest {
         );
 
         verify(fileProcessingService).processFile(any());
-
-        verify(objectMapper, never()).writeValueAsBytes(any());
-        verify(fileSystemService, never()).saveJsonResult(any(), any());
+        verify(fileSystemService, never()).saveHotels(any(), any());
     }
 
     @Test
@@ -202,8 +279,7 @@ class HotelConverterServiceTest {
 
         assertEquals("Processing error", thrown.getMessage());
 
-        verify(fileSystemService, never()).saveJsonResult(any(), any());
-        verify(objectMapper, never()).writeValueAsBytes(any());
+        verify(fileSystemService, never()).saveHotels(any(), any());
     }
 
     @Test
@@ -211,7 +287,6 @@ class HotelConverterServiceTest {
         // Given
         Path outputPath = tempDir.resolve("output");
         when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
-        when(objectMapper.writeValueAsBytes(any())).thenReturn("{}".getBytes());
 
         // When
         ProcessingResult result = hotelConverterService.processFiles(List.of());
@@ -221,4 +296,81 @@ class HotelConverterServiceTest {
         assertEquals(0, result.downloadedImages());
         verify(fileProcessingService, never()).processFile(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    void processFiles_Incremental_SkipsUnchangedFilesAndMergesIntoStore() {
+        //given
+        Path outputPath = tempDir.resolve("output");
+
+        MockMultipartFile unchangedFile = new MockMultipartFile(
+                "file",
+                "123-giata.json",
+                "application/json",
+                "{\"test\": \"old\"}".getBytes()
+        );
+        MockMultipartFile changedFile = new MockMultipartFile(
+                "file",
+                "123-coah.json",
+                "application/json",
+                "{\"test\": \"new\"}".getBytes()
+        );
+
+        Map<String, Object> coaContent = Map.of("test", "new");
+
+        when(hotelStateStore.isEnabled()).thenReturn(true);
+        when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
+        when(hotelStateStore.isUnchanged(eq("123-giata.json"), anyString())).thenReturn(true);
+        when(hotelStateStore.isUnchanged(eq("123-coah.json"), anyString())).thenReturn(false);
+        when(fileProcessingService.processFile(changedFile)).thenReturn(coaContent);
+
+        //when
+        ProcessingResult result = hotelConverterService.processFiles(List.of(unchangedFile, changedFile));
+
+        //then
+        assertEquals(outputPath.resolve("hotels.json"), result.jsonFile());
+        verify(fileProcessingService, never()).processFile(unchangedFile);
+        verify(hotelStateStore).merge(
+                eq(Map.of("123", Map.of(FileType.COA, coaContent))),
+                argThat(sources -> sources.keySet().equals(Set.of("123-coah.json"))),
+                eq(outputPath.resolve("images")));
+        verify(hotelStateStore).writeSnapshot(outputPath, outputPath.resolve("images"));
+        verify(fileSystemService, never()).saveHotels(any(), any());
+    }
+
+    @Test
+    void processFiles_Incremental_DownloadsImagesOfStoredPartOfChangedHotel() {
+        //given
+        Path outputPath = tempDir.resolve("output");
+        Path imagesDir = outputPath.resolve("images");
+        MockMultipartFile changedFile = new MockMultipartFile(
+                "file",
+                "123-coah.json",
+                "application/json",
+                "{}".getBytes()
+        );
+        Map<String, Object> coaContent = Map.of("image", List.of(Map.of("url", "http://example.com/new.jpg"),
+                Map.of("url", "http://example.com/shared.jpg")));
+        HotelData stored = new HotelData(
+                Map.of("image", List.of(Map.of("url", "http://example.com/giata.jpg"),
+                        Map.of("url", "http://example.com/shared.jpg"))),
+                Map.of("image", List.of(Map.of("url", "http://example.com/old.jpg"))));
+
+        when(hotelStateStore.isEnabled()).thenReturn(true);
+        when(fileSystemService.getOutputPath(any(LocalDateTime.class))).thenReturn(outputPath);
+        when(hotelStateStore.isUnchanged(eq("123-coah.json"), anyString())).thenReturn(false);
+        when(hotelStateStore.load("123")).thenReturn(Optional.of(stored));
+        when(fileProcessingService.processFile(changedFile)).thenReturn(coaContent);
+        when(fileSystemService.downloadImage(anyString(), eq("123"), eq(imagesDir), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DownloadOutcome.DOWNLOADED));
+
+        //when
+        ProcessingResult result = hotelConverterService.processFiles(List.of(changedFile));
+
+        //then
+        assertEquals(3, result.downloadedImages());
+        verify(fileSystemService).downloadImage(eq("http://example.com/giata.jpg"), eq("123"), eq(imagesDir), any(), any());
+        verify(fileSystemService).downloadImage(eq("http://example.com/shared.jpg"), eq("123"), eq(imagesDir), any(), any());
+        verify(fileSystemService, never())
+                .downloadImage(eq("http://example.com/old.jpg"), anyString(), any(), any(), any());
+    }
+}
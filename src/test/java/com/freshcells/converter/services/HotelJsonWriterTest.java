@@ -0,0 +1,137 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.model.HotelData;
+import com.freshcells.converter.model.HotelIndexEntry;
+import com.freshcells.converter.model.RawJson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotelJsonWriterTest {
+
+    private final ObjectMapper objectMapper = new JacksonConfig().objectMapper();
+    private final HotelJsonWriter hotelJsonWriter = new HotelJsonWriter(objectMapper);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void write_FromEncodedFragments_IsIdenticalToMapSerialization() throws Exception {
+        //given
+        Map<String, HotelData> hotels = new TreeMap<>(Map.of(
+                "123", new HotelData(
+                        Map.of("name", "Hotel", "image", List.of(Map.of("url", "https://example.com/1.jpg"))),
+                        Map.of("stars", 4)),
+                "456", HotelData.empty()
+        ));
+
+        //when
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hotelJsonWriter.write(hotels.keySet(), id -> hotelJsonWriter.encode(hotels.get(id)), out);
+
+        //then
+        assertArrayEquals(objectMapper.writeValueAsBytes(hotels), out.toByteArray());
+    }
+
+    @Test
+    void write_WithPassThroughSubtrees_IsIdenticalToMapSerialization() throws Exception {
+        //given
+        RawJson texts = new RawJson("{\"paragraph\":[\"Strand\",\"Pool\"]}".getBytes(), Set.of());
+        Map<String, HotelData> hotels = new TreeMap<>(Map.of(
+                "123", new HotelData(new TreeMap<>(Map.of("name", "Hotel", "texts", texts)), Map.of())));
+
+        //when
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hotelJsonWriter.write(hotels.keySet(), id -> hotelJsonWriter.encode(hotels.get(id)), out);
+
+        //then
+        assertArrayEquals(objectMapper.writeValueAsBytes(hotels), out.toByteArray());
+        Map<String, HotelData> written = objectMapper.readValue(out.toByteArray(), new TypeReference<>() {});
+        Map<?, ?> giata = written.get("123").giata();
+        assertEquals(Map.of("paragraph", List.of("Strand", "Pool")), giata.get("texts"));
+    }
+
+    @Test
+    void write_WithoutHotels_IsIdenticalToEmptyMapSerialization() throws Exception {
+        //when
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hotelJsonWriter.write(List.of(), id -> new byte[0], out);
+
+        //then
+        assertArrayEquals(objectMapper.writeValueAsBytes(Map.of()), out.toByteArray());
+    }
+
+    @Test
+    void encode_ProducesStandaloneJsonValue() throws Exception {
+        //given
+        HotelData hotel = new HotelData(Map.of("name", "Hotel"), Map.of());
+
+        //when
+        byte[] fragment = hotelJsonWriter.encode(hotel);
+
+        //then
+        assertEquals(hotel, objectMapper.readValue(fragment, HotelData.class));
+    }
+
+    @Test
+    void writeFile_IndexPointsAtEveryHotelValue() throws Exception {
+        //given
+        Map<String, HotelData> hotels = new TreeMap<>(Map.of(
+                "1", new HotelData(Map.of("name", "First"), Map.of()),
+                "2", new HotelData(Map.of(), Map.of("name", "Second"))
+        ));
+        Path jsonFile = tempDir.resolve("hotels.json");
+
+        //when
+        hotelJsonWriter.writeFile(hotels.keySet(), id -> hotelJsonWriter.encode(hotels.get(id)), jsonFile);
+
+        //then
+        byte[] document = Files.readAllBytes(jsonFile);
+        Map<String, HotelIndexEntry> index = objectMapper.readValue(
+                HotelJsonWriter.indexPath(jsonFile).toFile(), new TypeReference<>() {});
+        assertEquals(hotels.keySet(), index.keySet());
+        index.forEach((id, entry) -> {
+            byte[] slice = Arrays.copyOfRange(document, (int) entry.offset(), (int) entry.offset() + entry.length());
+            try {
+                assertEquals(hotels.get(id), objectMapper.readValue(slice, HotelData.class));
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+    }
+
+    @Test
+    void writeFile_ManyHotelsEncodedInParallel_IsIdenticalToMapSerialization() throws Exception {
+        //given
+        Map<String, HotelData> hotels = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            hotels.put("hotel-" + i, new HotelData(
+                    Map.of("name", "Hotel " + i, "image", List.of(Map.of("url", "https://example.com/" + i + ".jpg"))),
+                    i % 3 == 0 ? Map.of() : Map.of("stars", i % 5)));
+        }
+        Path jsonFile = tempDir.resolve("hotels.json");
+
+        //when
+        HotelJsonWriter.DocumentInfo info = hotelJsonWriter.writeFile(
+                hotels.keySet(), id -> hotelJsonWriter.encode(hotels.get(id)), jsonFile);
+
+        //then
+        byte[] expected = objectMapper.writeValueAsBytes(hotels);
+        assertArrayEquals(expected, Files.readAllBytes(jsonFile));
+        assertEquals(expected.length, info.bytes());
+        assertEquals(ContentHash.sha256(expected), info.sha256());
+    }
+}
@@ -0,0 +1,107 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.exceptions.HotelNotFoundException;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.HotelData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class HotelLookupServiceTest {
+
+    private static final String RUN = "20240120_153045";
+
+    @Mock
+    private AppProperties appProperties;
+
+    private final ObjectMapper objectMapper = new JacksonConfig().objectMapper();
+
+    private HotelLookupService hotelLookupService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(appProperties.outputDir()).thenReturn(tempDir.toString());
+        hotelLookupService = new HotelLookupService(appProperties, objectMapper);
+    }
+
+    @Test
+    void getHotel_ReturnsSliceOfHotelsJson() throws Exception {
+        //given
+        Map<String, HotelData> hotels = new TreeMap<>(Map.of(
+                "123", new HotelData(Map.of("name", "First"), Map.of()),
+                "456", new HotelData(Map.of("name", "Second"), Map.of("stars", "5"))
+        ));
+        writeRun(hotels);
+
+        //when
+        byte[] first = hotelLookupService.getHotel(RUN, "123");
+        byte[] second = hotelLookupService.getHotel(RUN, "456");
+
+        //then
+        assertEquals(hotels.get("123"), objectMapper.readValue(first, HotelData.class));
+        assertEquals(hotels.get("456"), objectMapper.readValue(second, HotelData.class));
+    }
+
+    @Test
+    void getHotel_WithShardedRun_RoutesToShard() throws Exception {
+        //given
+        Map<String, HotelData> hotels = new TreeMap<>();
+        for (int i = 0; i < 10; i++) {
+            hotels.put(String.valueOf(i), new HotelData(Map.of("name", "Hotel " + i), Map.of()));
+        }
+        Path runDir = Files.createDirectories(tempDir.resolve(RUN));
+        HotelJsonWriter writer = new HotelJsonWriter(objectMapper);
+        writer.writeOutput(new TreeSet<>(hotels.keySet()), id -> writer.encode(hotels.get(id)), runDir, 3);
+
+        //when & then
+        for (Map.Entry<String, HotelData> hotel : hotels.entrySet()) {
+            byte[] json = hotelLookupService.getHotel(RUN, hotel.getKey());
+            assertEquals(hotel.getValue(), objectMapper.readValue(json, HotelData.class));
+        }
+    }
+
+    @Test
+    void getHotel_WithUnknownHotel_ThrowsNotFound() throws Exception {
+        //given
+        writeRun(Map.of("123", HotelData.empty()));
+
+        //when & then
+        assertThrows(HotelNotFoundException.class, () -> hotelLookupService.getHotel(RUN, "999"));
+    }
+
+    @Test
+    void getHotel_WithUnknownRun_ThrowsNotFound() {
+        assertThrows(HotelNotFoundException.class, () -> hotelLookupService.getHotel("20000101_000000", "123"));
+    }
+
+    @Test
+    void getHotel_WithInvalidRun_ThrowsValidationException() {
+        assertThrows(HotelValidationException.class, () -> hotelLookupService.getHotel("..", "123"));
+    }
+
+    private void writeRun(Map<String, HotelData> hotels) throws Exception {
+        Path runDir = Files.createDirectories(tempDir.resolve(RUN));
+        HotelJsonWriter writer = new HotelJsonWriter(objectMapper);
+        writer.writeFile(new TreeMap<>(hotels).keySet(), id -> writer.encode(hotels.get(id)),
+                runDir.resolve("hotels.json"));
+    }
+}
@@ -0,0 +1,177 @@
+package com.freshcells.converter.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.FileType;
+import com.freshcells.converter.exceptions.HotelValidationException;
+import com.freshcells.converter.model.HotelData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HotelStateStoreTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    private final ObjectMapper objectMapper = new JacksonConfig().objectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        when(appProperties.stateStore())
+                .thenReturn(new AppProperties.StateStore(true, tempDir.resolve("state").toString()));
+    }
+
+    @Test
+    void update_PersistsHotelsAndSourceHashesAcrossInstances() {
+        //given
+        HotelData hotel = new HotelData(Map.of("name", "Hotel"), Map.of("stars", "4"));
+        createStore().update(Map.of("123", hotel), Map.of("123-giata.xml", "hash1"));
+
+        //when
+        HotelStateStore reopened = createStore();
+
+        //then
+        assertEquals(1, reopened.size());
+        assertEquals(hotel, reopened.load("123").orElseThrow());
+        assertTrue(reopened.isUnchanged("123-giata.xml", "hash1"));
+        assertFalse(reopened.isUnchanged("123-giata.xml", "hash2"));
+        assertFalse(reopened.isUnchanged("123-coah.xml", "hash1"));
+        assertTrue(reopened.load("456").isEmpty());
+    }
+
+    @Test
+    void writeSnapshot_ContainsStoredAndUpdatedHotels() throws Exception {
+        //given
+        HotelStateStore store = createStore();
+        store.update(Map.of("1", new HotelData(Map.of("v", "a"), Map.of())), Map.of("1-giata.xml", "h1"));
+        store.update(Map.of("2", new HotelData(Map.of("v", "b"), Map.of())), Map.of("2-giata.xml", "h2"));
+        store.update(Map.of("1", new HotelData(Map.of("v", "c"), Map.of())), Map.of("1-giata.xml", "h3"));
+        when(appProperties.output()).thenReturn(new AppProperties.Output(1));
+        Path snapshot = tempDir.resolve("hotels.json");
+
+        //when
+        store.writeSnapshot(tempDir, tempDir.resolve("images"));
+
+        //then
+        Map<String, HotelData> hotels = objectMapper.readValue(snapshot.toFile(), new TypeReference<>() {});
+        assertEquals(Map.of(
+                "1", new HotelData(Map.of("v", "c"), Map.of()),
+                "2", new HotelData(Map.of("v", "b"), Map.of())
+        ), hotels);
+    }
+
+    @Test
+    void merge_KeepsPartsOfConcurrentBatches() throws Exception {
+        //given
+        HotelStateStore store = createStore();
+        store.update(Map.of("1", new HotelData(Map.of("v", "old"), Map.of("v", "old"))), Map.of());
+        int batches = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(batches);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> merges = new ArrayList<>();
+
+        //when
+        //half of the batches bring a new GIATA file of the hotel, the other half a new COAH file
+        for (int i = 0; i < batches; i++) {
+            FileType fileType = i % 2 == 0 ? FileType.GIATA : FileType.COA;
+            String source = "1-" + (fileType == FileType.GIATA ? "giata" : "coah") + "-" + i + ".xml";
+            merges.add(executor.submit(() -> {
+                start.await();
+                store.merge(Map.of("1", Map.of(fileType, Map.of("v", "new"))), Map.of(source, "hash"),
+                        tempDir.resolve("run"));
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> merge : merges) {
+            merge.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        //then
+        assertEquals(new HotelData(Map.of("v", "new"), Map.of("v", "new")), store.load("1").orElseThrow());
+        assertTrue(createStore().isUnchanged("1-coah-7.xml", "hash"));
+    }
+
+    @Test
+    void merge_ReplacesOnlyReceivedPartOfStoredHotel() {
+        //given
+        HotelStateStore store = createStore();
+        store.update(Map.of("1", new HotelData(Map.of("name", "Hotel"), Map.of("stars", "3"))), Map.of());
+
+        //when
+        store.merge(Map.of("1", Map.of(FileType.COA, Map.of("stars", "4")),
+                        "2", Map.of(FileType.GIATA, Map.of("name", "New"))),
+                Map.of("1-coah.xml", "h1", "2-giata.xml", "h2"), tempDir.resolve("run"));
+
+        //then
+        assertEquals(new HotelData(Map.of("name", "Hotel"), Map.of("stars", "4")), store.load("1").orElseThrow());
+        assertEquals(new HotelData(Map.of("name", "New"), Map.of()), store.load("2").orElseThrow());
+    }
+
+    @Test
+    void writeSnapshot_LinksKeptImagesOfHotelsSkippedAsUnchanged() throws Exception {
+        //given
+        HotelStateStore store = createStore();
+        when(appProperties.output()).thenReturn(new AppProperties.Output(1));
+        String image1 = "1_" + UUID.randomUUID() + ".jpg";
+        String image2 = "2_" + UUID.randomUUID() + ".jpg";
+        Path firstRun = Files.createDirectories(tempDir.resolve("first/images"));
+        Files.writeString(firstRun.resolve(image1), "image of 1");
+        Files.writeString(firstRun.resolve(image1.replace(".jpg", "_100.jpg")), "thumbnail of 1");
+        Files.writeString(firstRun.resolve(image2), "old image of 2");
+        store.merge(Map.of("1", Map.of(FileType.GIATA, Map.of("v", "a")), "2", Map.of(FileType.GIATA, Map.of("v", "b"))),
+                Map.of(), firstRun);
+        String newImage2 = "2_" + UUID.randomUUID() + ".jpg";
+        Path secondRun = Files.createDirectories(tempDir.resolve("second/images"));
+        Files.writeString(secondRun.resolve(newImage2), "new image of 2");
+        store.merge(Map.of("2", Map.of(FileType.GIATA, Map.of("v", "c"))), Map.of(), secondRun);
+        //the first run's output is removed, the store still holds its images
+        try (Stream<Path> firstOutput = Files.walk(tempDir.resolve("first"))) {
+            firstOutput.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+
+        //when
+        store.writeSnapshot(tempDir.resolve("second"), secondRun);
+
+        //then
+        try (Stream<Path> images = Files.list(secondRun)) {
+            assertEquals(Set.of(image1, image1.replace(".jpg", "_100.jpg"), newImage2),
+                    images.map(path -> path.getFileName().toString()).collect(Collectors.toSet()));
+        }
+        assertEquals("image of 1", Files.readString(secondRun.resolve(image1)));
+    }
+
+    @Test
+    void load_WithPathLikeHotelId_ThrowsValidationException() {
+        //given
+        HotelStateStore store = createStore();
+
+        //when & then
+        assertThrows(HotelValidationException.class, () -> store.load("../etc"));
+    }
+
+    private HotelStateStore createStore() {
+        return new HotelStateStore(appProperties, objectMapper, new HotelJsonWriter(objectMapper));
+    }
+}
@@ -0,0 +1,205 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ImageDedupServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void dHash_IsStableAcrossRescaling() {
+        //given
+        BufferedImage original = gradient(400, 300, false);
+        BufferedImage rescaled = rescale(original, 120, 90);
+
+        //when
+        long distance = Long.bitCount(ImageDedupService.dHash(original) ^ ImageDedupService.dHash(rescaled));
+
+        //then
+        assertTrue(distance <= 4, "distance was " + distance);
+    }
+
+    @Test
+    void findOrRegister_NearDuplicate_ReturnsStoredFileAndRecordsReference() throws Exception {
+        //given
+        ImageDedupService service = createService("");
+        Path first = tempDir.resolve("1_a.jpg");
+        long hash = ImageDedupService.dHash(gradient(400, 300, false));
+        long nearHash = ImageDedupService.dHash(rescale(gradient(400, 300, false), 200, 150));
+        AtomicInteger writes = new AtomicInteger();
+
+        //when
+        Optional<Path> registered = service.findOrRegister(hash, "1", first, () -> {
+            writes.incrementAndGet();
+            Files.createFile(first);
+        });
+        Optional<Path> duplicate = service.findOrRegister(nearHash, "2", tempDir.resolve("2_b.jpg"),
+                writes::incrementAndGet);
+
+        //then
+        assertEquals(Optional.empty(), registered);
+        assertEquals(Optional.of(first.toAbsolutePath()), duplicate);
+        assertEquals(1, writes.get());
+        assertEquals(1, service.size());
+        assertEquals(Set.of("1", "2"), service.hotelsReferencing(first));
+    }
+
+    @Test
+    void findOrRegister_DifferentImage_IsRegistered() throws Exception {
+        //given
+        ImageDedupService service = createService("");
+        register(service, ImageDedupService.dHash(gradient(400, 300, false)), "1", tempDir.resolve("1_a.jpg"));
+
+        //when
+        Optional<Path> duplicate = register(service, ImageDedupService.dHash(gradient(400, 300, true)), "2",
+                tempDir.resolve("2_b.jpg"));
+
+        //then
+        assertEquals(Optional.empty(), duplicate);
+        assertEquals(2, service.size());
+    }
+
+    @Test
+    void findOrRegister_ConcurrentNearDuplicate_WaitsForWriteAndLinksToIt() throws Exception {
+        //given
+        ImageDedupService service = createService("");
+        long hash = ImageDedupService.dHash(gradient(400, 300, false));
+        Path first = tempDir.resolve("1_a.jpg");
+        CountDownLatch writing = new CountDownLatch(1);
+        CompletableFuture<Void> release = new CompletableFuture<>();
+
+        //when
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            Future<Optional<Path>> firstResult = executor.submit(() -> service.findOrRegister(hash, "1", first, () -> {
+                writing.countDown();
+                release.orTimeout(10, TimeUnit.SECONDS).join();
+                Files.createFile(first);
+            }));
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            Future<Optional<Path>> secondResult = executor.submit(() -> register(service, hash, "2",
+                    tempDir.resolve("2_b.jpg")));
+            Thread.sleep(100);
+            boolean secondWaited = !secondResult.isDone();
+            release.complete(null);
+
+            //then
+            assertTrue(secondWaited);
+            assertEquals(Optional.empty(), firstResult.get(10, TimeUnit.SECONDS));
+            assertEquals(Optional.of(first.toAbsolutePath()), secondResult.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, service.size());
+        assertFalse(Files.exists(tempDir.resolve("2_b.jpg")));
+    }
+
+    @Test
+    void findOrRegister_FailedWrite_LeavesNoEntry() throws Exception {
+        //given
+        ImageDedupService service = createService("");
+        long hash = ImageDedupService.dHash(gradient(400, 300, false));
+
+        //when
+        assertThrows(IOException.class, () -> service.findOrRegister(hash, "1", tempDir.resolve("1_a.jpg"), () -> {
+            throw new IOException("disk full");
+        }));
+        Optional<Path> next = register(service, hash, "2", tempDir.resolve("2_b.jpg"));
+
+        //then
+        assertEquals(Optional.empty(), next);
+        assertEquals(1, service.size());
+        assertEquals(Set.of("2"), service.hotelsReferencing(tempDir.resolve("2_b.jpg")));
+    }
+
+    @Test
+    void findOrRegister_ReplacesRemovedStoredFile() throws Exception {
+        //given
+        ImageDedupService service = createService("");
+        long hash = ImageDedupService.dHash(gradient(400, 300, false));
+        Path removed = tempDir.resolve("1_a.jpg");
+        register(service, hash, "1", removed);
+        Files.delete(removed);
+        Path replacement = tempDir.resolve("2_b.jpg");
+
+        //when
+        Optional<Path> duplicateOfRemoved = register(service, hash, "2", replacement);
+
+        //then
+        assertEquals(Optional.empty(), duplicateOfRemoved);
+        assertEquals(1, service.size());
+        assertEquals(Optional.of(replacement.toAbsolutePath()), register(service, hash, "3", tempDir.resolve("3_c.jpg")));
+    }
+
+    @Test
+    void persist_IndexIsReloadedByNewInstance() throws Exception {
+        //given
+        String indexFile = tempDir.resolve("dedup.idx").toString();
+        ImageDedupService service = createService(indexFile);
+        Path stored = tempDir.resolve("1_a.jpg");
+        long hash = ImageDedupService.dHash(gradient(400, 300, false));
+        register(service, hash, "1", stored);
+
+        //when
+        service.persist();
+        ImageDedupService reloaded = createService(indexFile);
+
+        //then
+        assertEquals(1, reloaded.size());
+        assertEquals(Optional.of(stored.toAbsolutePath()), register(reloaded, hash, "2", tempDir.resolve("2_b.jpg")));
+    }
+
+    private static Optional<Path> register(ImageDedupService service, long hash, String hotelId, Path file)
+            throws IOException {
+        return service.findOrRegister(hash, hotelId, file, () -> Files.createFile(file));
+    }
+
+    private ImageDedupService createService(String indexFile) {
+        when(appProperties.images()).thenReturn(new AppProperties.Images(
+                List.of(), 1, 1, new AppProperties.Dedup(true, 4, indexFile), 300));
+        return new ImageDedupService(appProperties);
+    }
+
+    //wave - brightness oscillates along x, ramp - brightness falls monotonically along x
+    private BufferedImage gradient(int width, int height, boolean ramp) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ramp
+                        ? 255 - 255 * x / width
+                        : (int) (255.0 * (Math.sin(x / 40.0) + 1) / 2);
+                image.setRGB(x, y, value << 16 | value << 8 | value);
+            }
+        }
+        return image;
+    }
+
+    private BufferedImage rescale(BufferedImage image, int width, int height) {
+        BufferedImage rescaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rescaled.createGraphics();
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return rescaled;
+    }
+}
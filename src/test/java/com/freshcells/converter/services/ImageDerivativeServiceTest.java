@@ -0,0 +1,88 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ImageDerivativeServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    private ImageDerivativeService imageDerivativeService;
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        if (imageDerivativeService != null) {
+            imageDerivativeService.shutdown();
+        }
+    }
+
+    @Test
+    void createDerivatives_WritesResizedVariantsNextToOriginal() throws Exception {
+        //given
+        createService(List.of(100, 1000));
+        Path original = tempDir.resolve("123_image.jpg");
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(image, "jpg", original.toFile());
+
+        //when
+        List<Path> derivatives = imageDerivativeService.createDerivatives(image, original).get(10, TimeUnit.SECONDS);
+
+        //then
+        Path thumbnail = tempDir.resolve("123_image_100.jpg");
+        assertEquals(List.of(thumbnail), derivatives);
+        BufferedImage written = ImageIO.read(thumbnail.toFile());
+        assertEquals(100, written.getWidth());
+        assertEquals(75, written.getHeight());
+        //no upscaling beyond the original size
+        assertFalse(Files.exists(tempDir.resolve("123_image_1000.jpg")));
+    }
+
+    @Test
+    void createDerivatives_KeepsPngWithAlpha() throws Exception {
+        //given
+        createService(List.of(50));
+        Path original = tempDir.resolve("123_image.png");
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+
+        //when
+        List<Path> derivatives = imageDerivativeService.createDerivatives(image, original).get(10, TimeUnit.SECONDS);
+
+        //then
+        assertEquals(List.of(tempDir.resolve("123_image_50.png")), derivatives);
+        assertTrue(ImageIO.read(derivatives.get(0).toFile()).getColorModel().hasAlpha());
+    }
+
+    @Test
+    void isEnabled_WithoutSizes_ReturnsFalse() {
+        //given
+        createService(List.of());
+
+        //when & then
+        assertFalse(imageDerivativeService.isEnabled());
+    }
+
+    private void createService(List<Integer> sizes) {
+        when(appProperties.images()).thenReturn(new AppProperties.Images(sizes, 2, 4, null, 300));
+        imageDerivativeService = new ImageDerivativeService(appProperties);
+    }
+}
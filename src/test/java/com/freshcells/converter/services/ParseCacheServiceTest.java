@@ -0,0 +1,98 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.enums.FileExtension;
+import com.freshcells.converter.model.RawJson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ParseCacheServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void get_ReturnsContentEqualToCachedOne() {
+        //given
+        ParseCacheService cache = createCache(1024 * 1024, "");
+        Map<String, Object> content = Map.of("hotel", Map.of("name", "Hotel", "image", List.of(Map.of("url", "a.jpg"))));
+        String key = ParseCacheService.key("<hotel/>".getBytes(), FileExtension.XML);
+
+        //when
+        cache.put(key, content);
+
+        //then
+        assertEquals(content, cache.get(key).orElseThrow());
+        assertTrue(cache.get(ParseCacheService.key("<hotel/>".getBytes(), FileExtension.JSON)).isEmpty());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void get_RestoresPassThroughSubtrees() {
+        //given
+        ParseCacheService cache = createCache(1024 * 1024, "");
+        RawJson texts = new RawJson("{\"paragraph\":[\"a\",\"b\"]}".getBytes(), Set.of("http://x/a.jpg"));
+        Map<String, Object> content = Map.of("hotel", Map.of("name", "Hotel", "texts", texts));
+
+        //when
+        cache.put("key", content);
+
+        //then
+        assertEquals(content, cache.get("key").orElseThrow());
+    }
+
+    @Test
+    void put_OverBudget_EvictsLeastRecentlyUsed() {
+        //given
+        Map<String, Object> content = Map.of("text", "x".repeat(400));
+        ParseCacheService cache = createCache(1000, "");
+        cache.put("first", content);
+        cache.put("second", content);
+        cache.get("first");
+
+        //when
+        cache.put("third", content);
+
+        //then
+        assertTrue(cache.get("first").isPresent());
+        assertTrue(cache.get("second").isEmpty());
+        assertTrue(cache.get("third").isPresent());
+        assertTrue(cache.sizeInBytes() <= 1000);
+    }
+
+    @Test
+    void persist_EntriesAreReloadedByNewInstance() {
+        //given
+        String dir = tempDir.resolve("cache").toString();
+        ParseCacheService cache = createCache(1024 * 1024, dir);
+        cache.put("key", Map.of("name", "Hotel"));
+
+        //when
+        cache.persist();
+        ParseCacheService reloaded = createCache(1024 * 1024, dir);
+
+        //then
+        assertEquals(Map.of("name", "Hotel"), reloaded.get("key").orElseThrow());
+    }
+
+    private ParseCacheService createCache(long maxBytes, String persistDir) {
+        when(appProperties.parseCache()).thenReturn(new AppProperties.ParseCache(true, maxBytes, persistDir));
+        return new ParseCacheService(appProperties);
+    }
+}
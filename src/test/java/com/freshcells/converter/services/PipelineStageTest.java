@@ -0,0 +1,204 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.enums.StageOverflow;
+import com.freshcells.converter.model.PipelineStageStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineStageTest {
+
+    private PipelineStage stage;
+
+    @AfterEach
+    void tearDown() {
+        stage.shutdown();
+    }
+
+    @Test
+    void submitAsync_HoldsSlotUntilWorkCompletes() throws Exception {
+        //given
+        stage = new PipelineStage("fetch", 2, 10, StageOverflow.BLOCK);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        AtomicBoolean thirdStarted = new AtomicBoolean();
+
+        //when
+        CompletableFuture<String> firstResult = stage.submitAsync(() -> first);
+        stage.submitAsync(() -> second);
+        CompletableFuture<String> thirdResult = stage.submitAsync(() -> {
+            thirdStarted.set(true);
+            return CompletableFuture.completedFuture("third");
+        });
+
+        //then
+        assertEquals(1, stage.queued());
+        assertFalse(thirdStarted.get());
+        first.complete("first");
+        assertEquals("first", firstResult.get(10, TimeUnit.SECONDS));
+        assertEquals("third", thirdResult.get(10, TimeUnit.SECONDS));
+        assertEquals(0, stage.queued());
+    }
+
+    @Test
+    void submitAsync_SlotIsHeldUntilHandoffReturns() throws Exception {
+        //given
+        stage = new PipelineStage("fetch", 1, 10, StageOverflow.BLOCK);
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CountDownLatch handoffStarted = new CountDownLatch(1);
+        CountDownLatch nextStageFull = new CountDownLatch(1);
+        AtomicReference<String> handoffThread = new AtomicReference<>();
+        CompletableFuture<String> handedOver = stage.submitAsync(() -> response, image -> {
+            handoffThread.set(Thread.currentThread().getName());
+            handoffStarted.countDown();
+            awaitQuietly(nextStageFull);
+            return CompletableFuture.completedFuture("stored " + image);
+        });
+
+        //when
+        Thread completer = Thread.ofPlatform().start(() -> response.complete("image"));
+        completer.join(10_000);
+        assertTrue(handoffStarted.await(10, TimeUnit.SECONDS));
+        CompletableFuture<String> waiting = stage.submit(() -> "next");
+
+        //then
+        assertFalse(completer.isAlive());
+        assertTrue(handoffThread.get().startsWith("fetch-"));
+        assertEquals(1, stage.stats().active());
+        assertEquals(1, stage.queued());
+        assertFalse(waiting.isDone());
+        nextStageFull.countDown();
+        assertEquals("stored image", handedOver.get(10, TimeUnit.SECONDS));
+        assertEquals("next", waiting.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submitAsync_CancellingResultCancelsHandedOverTask() throws Exception {
+        //given
+        stage = new PipelineStage("fetch", 1, 10, StageOverflow.BLOCK);
+        CompletableFuture<String> nextStageTask = new CompletableFuture<>();
+        CompletableFuture<String> handedOver = stage.submitAsync(
+                () -> CompletableFuture.completedFuture("image"), image -> nextStageTask);
+        for (int i = 0; i < 200 && stage.stats().completed() < 1; i++) {
+            Thread.sleep(10);
+        }
+
+        //when
+        handedOver.cancel(true);
+
+        //then
+        assertTrue(nextStageTask.isCancelled());
+    }
+
+    @Test
+    void submit_BlocksSubmitterWhileQueueIsFull() throws Exception {
+        //given
+        stage = new PipelineStage("validate", 1, 1, StageOverflow.BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        stage.submit(() -> awaitQuietly(release));
+        stage.submit(() -> "queued");
+        CountDownLatch submitted = new CountDownLatch(1);
+
+        //when
+        Thread submitter = Thread.ofPlatform().start(() -> {
+            stage.submit(() -> "blocked");
+            submitted.countDown();
+        });
+
+        //then
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(Thread.State.WAITING, submitter.getState());
+        release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_ShedsTaskWhenQueueIsFull() throws Exception {
+        //given
+        stage = new PipelineStage("write", 1, 1, StageOverflow.SHED);
+        CountDownLatch release = new CountDownLatch(1);
+        stage.submit(() -> awaitQuietly(release));
+        CompletableFuture<String> queued = stage.submit(() -> "queued");
+
+        //when
+        CompletableFuture<String> shed = stage.submit(() -> "shed");
+
+        //then
+        ExecutionException e = assertThrows(ExecutionException.class, () -> shed.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1, stage.stats().shed());
+        release.countDown();
+        assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_CancelledWaitingTaskNeverRuns() throws Exception {
+        //given
+        stage = new PipelineStage("validate", 1, 1, StageOverflow.BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = stage.submit(() -> awaitQuietly(release));
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<Integer> cancelled = stage.submit(runs::incrementAndGet);
+
+        //when
+        cancelled.cancel(true);
+        CompletableFuture<String> next = stage.submit(() -> "next");
+
+        //then
+        assertEquals(1, stage.queued());
+        release.countDown();
+        assertTrue(running.get(10, TimeUnit.SECONDS));
+        assertEquals("next", next.get(10, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void stats_CountsThroughputOfLastTenSeconds() throws Exception {
+        //given
+        AtomicLong now = new AtomicLong();
+        stage = new PipelineStage("write", 1, 10, StageOverflow.BLOCK, now::get);
+
+        //when
+        for (int i = 0; i < 20; i++) {
+            stage.submit(() -> "done").get(10, TimeUnit.SECONDS);
+        }
+        awaitCompleted(20);
+        now.set(TimeUnit.SECONDS.toNanos(5));
+        for (int i = 0; i < 10; i++) {
+            stage.submit(() -> "done").get(10, TimeUnit.SECONDS);
+        }
+        awaitCompleted(30);
+        PipelineStageStats recent = stage.stats();
+        now.set(TimeUnit.SECONDS.toNanos(12));
+        PipelineStageStats later = stage.stats();
+
+        //then
+        assertEquals(30, recent.completed());
+        assertEquals(3.0, recent.throughput());
+        assertEquals(1.0, later.throughput());
+        assertEquals(0, later.active());
+    }
+
+    //the slot is released right after the handoff returned, just after get() returns
+    private void awaitCompleted(long tasks) throws InterruptedException {
+        for (int i = 0; i < 200 && stage.stats().completed() < tasks; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean awaitQuietly(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
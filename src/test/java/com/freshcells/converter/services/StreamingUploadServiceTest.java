@@ -0,0 +1,132 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.XmlParserBackend;
+import com.freshcells.converter.model.BatchDiagnostics;
+import com.freshcells.converter.model.ProcessingResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamingUploadServiceTest {
+
+    @Mock
+    private HotelConverterService hotelConverterService;
+    @Mock
+    private HotelConverterService.Batch batch;
+    @Mock
+    private ParseCacheService parseCacheService;
+    @Mock
+    private FieldProjection fieldProjection;
+
+    private final MultipartProperties multipartProperties = new MultipartProperties();
+    private StreamingUploadService streamingUploadService;
+
+    private static final String BOUNDARY = "----test-boundary";
+
+    @BeforeEach
+    void setUp() {
+        JacksonConfig jacksonConfig = new JacksonConfig();
+        FileProcessingService fileProcessingService = new FileProcessingService(
+                jacksonConfig.objectMapper(), jacksonConfig.xmlMapper(XmlParserBackend.WOODSTOX), parseCacheService, fieldProjection);
+        multipartProperties.setMaxFileSize(DataSize.ofKilobytes(1));
+        multipartProperties.setMaxRequestSize(DataSize.ofKilobytes(4));
+        streamingUploadService = new StreamingUploadService(
+                hotelConverterService, fileProcessingService, multipartProperties);
+    }
+
+    @Test
+    void processUpload_FeedsEveryPartIntoBatch() {
+        //given
+        ProcessingResult expected = new ProcessingResult(null, null, null, LocalDateTime.now(), 2, 0, 0, 0, null);
+        MockHttpServletRequest request = multipartRequest(
+                "123-giata.xml", "<result><name>Hotel</name></result>",
+                "123-coah.json", "{\"city\":\"Berlin\"}");
+        BatchMetrics metrics = new BatchMetrics();
+        when(hotelConverterService.startBatch("batch")).thenReturn(batch);
+        when(batch.metrics()).thenReturn(metrics);
+        when(batch.finish(2)).thenReturn(expected);
+
+        //when
+        ProcessingResult result = streamingUploadService.processUpload(request, "batch");
+
+        //then
+        assertSame(expected, result);
+        verify(batch).accept("123-giata.xml", Map.of("name", "Hotel"));
+        verify(batch).accept("123-coah.json", Map.of("city", "Berlin"));
+        verify(batch).skipUnchanged("123-coah.json",
+                ContentHash.sha256("{\"city\":\"Berlin\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(List.of(35L, 17L), metrics.snapshot(1).files().stream()
+                .map(BatchDiagnostics.FileDiagnostics::bytes).toList());
+    }
+
+    @Test
+    void processUpload_UnchangedPart_IsNotMerged() {
+        //given
+        MockHttpServletRequest request = multipartRequest("123-coah.json", "{\"city\":\"Berlin\"}");
+        when(hotelConverterService.startBatch("batch")).thenReturn(batch);
+        when(batch.metrics()).thenReturn(new BatchMetrics());
+        when(batch.skipUnchanged(eq("123-coah.json"), anyString())).thenReturn(true);
+
+        //when
+        streamingUploadService.processUpload(request, "batch");
+
+        //then
+        verify(batch, never()).accept(anyString(), any());
+        verify(batch).finish(1);
+    }
+
+    @Test
+    void processUpload_PartOverLimit_ThrowsException() {
+        //given
+        MockHttpServletRequest request = multipartRequest(
+                "123-coah.json", "{\"text\":\"" + "x".repeat(2048) + "\"}");
+        when(hotelConverterService.startBatch("batch")).thenReturn(batch);
+
+        //when & then
+        assertThrows(MaxUploadSizeExceededException.class, () -> streamingUploadService.processUpload(request, "batch"));
+        verify(batch, never()).finish(anyInt());
+    }
+
+    @Test
+    void expectedUploadBytes_WithoutContentLength_UsesRequestLimit() {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        //when & then
+        assertEquals(4096, streamingUploadService.expectedUploadBytes(request));
+    }
+
+    private MockHttpServletRequest multipartRequest(String... namesAndContents) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"files\"; filename=\"" + namesAndContents[i] + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n"
+                    + namesAndContents[i + 1] + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/converter/stream");
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(body.toByteArray());
+        return request;
+    }
+}
@@ -0,0 +1,177 @@
+package com.freshcells.converter.services;
+
+import com.freshcells.converter.config.AppProperties;
+import com.freshcells.converter.config.JacksonConfig;
+import com.freshcells.converter.enums.XmlParserBackend;
+import com.freshcells.converter.model.ProcessingResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WatchFolderServiceTest {
+
+    @Mock
+    private AppProperties appProperties;
+
+    @Mock
+    private HotelConverterService hotelConverterService;
+
+    @Mock
+    private HotelConverterService.Batch batch;
+
+    @Mock
+    private ParseCacheService parseCacheService;
+
+    @Mock
+    private FieldProjection fieldProjection;
+
+    @TempDir
+    Path tempDir;
+
+    private WatchFolderService watchFolderService;
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @AfterEach
+    void tearDown() {
+        watchFolderService.shutdown();
+    }
+
+    @Test
+    void takeReady_WaitsUntilWholeHotelGroupIsQuiet() throws Exception {
+        //given
+        watchFolderService = createService(2000, 100);
+        Path giata = Files.writeString(tempDir.resolve("123-giata.xml"), "<result/>");
+        Path coah = Files.writeString(tempDir.resolve("123-coah.xml"), "<result/>");
+        Files.writeString(tempDir.resolve("notes.txt"), "ignored");
+
+        //when
+        watchFolderService.scan(tempDir, 0);
+        watchFolderService.changed(coah, SECOND);
+        List<Path> whileWriting = watchFolderService.takeReady(2 * SECOND);
+        List<Path> afterDebounce = watchFolderService.takeReady(3 * SECOND);
+
+        //then
+        assertEquals(List.of(), whileWriting);
+        assertEquals(List.of(coah, giata), afterDebounce);
+        assertEquals(List.of(), watchFolderService.takeReady(10 * SECOND));
+    }
+
+    @Test
+    void takeReady_RestartsDebounceWhenFileGrows() throws Exception {
+        //given
+        watchFolderService = createService(2000, 100);
+        Path giata = Files.writeString(tempDir.resolve("123-giata.xml"), "<result>");
+        watchFolderService.changed(giata, 0);
+
+        //when
+        Files.writeString(giata, "<result></result>");
+        List<Path> grown = watchFolderService.takeReady(3 * SECOND);
+        List<Path> quiet = watchFolderService.takeReady(6 * SECOND);
+
+        //then
+        assertEquals(List.of(), grown);
+        assertEquals(List.of(giata), quiet);
+    }
+
+    @Test
+    void takeReady_LimitsBatchSizeWithoutSplittingHotels() throws Exception {
+        //given
+        watchFolderService = createService(2000, 2);
+        for (String filename : List.of("1-coah.xml", "1-giata.xml", "2-giata.xml", "3-coah.xml", "3-giata.xml")) {
+            Files.writeString(tempDir.resolve(filename), "<result/>");
+        }
+        watchFolderService.scan(tempDir, 0);
+
+        //when
+        List<Path> first = watchFolderService.takeReady(3 * SECOND);
+        List<Path> second = watchFolderService.takeReady(3 * SECOND);
+        List<Path> third = watchFolderService.takeReady(3 * SECOND);
+
+        //then
+        assertEquals(List.of(tempDir.resolve("1-coah.xml"), tempDir.resolve("1-giata.xml")), first);
+        assertEquals(List.of(tempDir.resolve("2-giata.xml")), second);
+        assertEquals(List.of(tempDir.resolve("3-coah.xml"), tempDir.resolve("3-giata.xml")), third);
+    }
+
+    @Test
+    void start_ConvertsUploadedFilesAndMovesThemAway() throws Exception {
+        //given
+        watchFolderService = createService(100, 100);
+        when(hotelConverterService.startBatch(anyString())).thenReturn(batch);
+        when(batch.metrics()).thenReturn(new BatchMetrics());
+        when(batch.finish(2)).thenReturn(new ProcessingResult(
+                tempDir.resolve("hotels.json"), null, null, LocalDateTime.now(), 2, 0, 0, 0, null));
+
+        //when
+        watchFolderService.start();
+        Files.writeString(tempDir.resolve("123-giata.xml"), "<result><name>Hotel</name></result>");
+        Files.writeString(tempDir.resolve("123-coah.xml"), "<result><stars>4</stars></result>");
+
+        //then
+        verify(batch, timeout(10_000)).finish(2);
+        verify(batch).accept("123-giata.xml", Map.of("name", "Hotel"));
+        verify(batch).accept("123-coah.xml", Map.of("stars", "4"));
+        Path processed = tempDir.resolve(WatchFolderService.PROCESSED_DIR);
+        for (int i = 0; i < 100 && !Files.exists(processed.resolve("123-coah.xml")); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(processed.resolve("123-giata.xml")));
+        assertTrue(Files.exists(processed.resolve("123-coah.xml")));
+        assertFalse(Files.exists(tempDir.resolve("123-giata.xml")));
+    }
+
+    @Test
+    void start_MovesOnlyMalformedHotelToFailed() throws Exception {
+        //given
+        watchFolderService = createService(100, 100);
+        when(hotelConverterService.startBatch(anyString())).thenReturn(batch);
+        when(batch.metrics()).thenReturn(new BatchMetrics());
+        when(batch.finish(2)).thenReturn(new ProcessingResult(
+                tempDir.resolve("hotels.json"), null, null, LocalDateTime.now(), 2, 0, 0, 0, null));
+        Files.writeString(tempDir.resolve("1-giata.xml"), "<result><name>One</name></result>");
+        Files.writeString(tempDir.resolve("2-giata.xml"), "<result><name>Two</name>");
+        Files.writeString(tempDir.resolve("3-giata.xml"), "<result><name>Three</name></result>");
+
+        //when
+        watchFolderService.start();
+
+        //then
+        verify(batch, timeout(10_000)).finish(2);
+        verify(batch).fail(any());
+        verify(batch, times(2)).accept("1-giata.xml", Map.of("name", "One"));
+        verify(batch).accept("3-giata.xml", Map.of("name", "Three"));
+        Path processed = tempDir.resolve(WatchFolderService.PROCESSED_DIR);
+        for (int i = 0; i < 100 && !Files.exists(processed.resolve("3-giata.xml")); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(processed.resolve("1-giata.xml")));
+        assertTrue(Files.exists(processed.resolve("3-giata.xml")));
+        assertTrue(Files.exists(tempDir.resolve(WatchFolderService.FAILED_DIR).resolve("2-giata.xml")));
+    }
+
+    private WatchFolderService createService(long debounceMillis, int maxFilesPerBatch) {
+        when(appProperties.watch()).thenReturn(
+                new AppProperties.Watch(true, tempDir.toString(), debounceMillis, maxFilesPerBatch, 0));
+        JacksonConfig jacksonConfig = new JacksonConfig();
+        FileProcessingService fileProcessingService = new FileProcessingService(jacksonConfig.objectMapper(),
+                jacksonConfig.xmlMapper(XmlParserBackend.WOODSTOX), parseCacheService, fieldProjection);
+        return new WatchFolderService(appProperties, hotelConverterService, fileProcessingService);
+    }
+}